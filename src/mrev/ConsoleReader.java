@@ -0,0 +1,91 @@
+package mrev;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ConsoleReader class reads the console input on it's own daemon thread and queues each
+ * line, thus the thread handling the commands never blocks on the console. The listener is
+ * notified of each queued line. The daemon thread never holds back the application from
+ * exiting, and the end of the input only stops the reading.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 20:31:14
+ * @version 0.0.1
+ */
+public class ConsoleReader implements Runnable {
+
+    // -------------------------------------------------------------------------
+
+    private final ConcurrentLinkedQueue<String> lines = new ConcurrentLinkedQueue<>();
+    private final Runnable listener;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the console reader.
+     * @param listener The listener notified of each queued line, run by the reading thread.
+     */
+    public ConsoleReader(Runnable listener) {
+        this.listener = listener;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method starts reading the console input.
+     */
+    public void startReading() {
+        ThreadClass.createThread(this, "Revision-Console", false).start();
+    }
+
+    /**
+     * This method returns the next queued line.
+     * @return String The line, or null if no line is queued.
+     */
+    public String poll() {
+        return lines.poll();
+    }
+
+    /**
+     * This method verifies if any lines are queued.
+     * @return boolean If any lines are queued.
+     */
+    public boolean isPending() {
+        return !lines.isEmpty();
+    }
+
+    /**
+     * This method reads the console input until it's end, queuing each non-empty line.
+     */
+    @Override
+    public void run() {
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+
+        try {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                line = line.trim();
+
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                lines.add(line);
+                listener.run();
+            }
+
+            Notifier.print("Console input closed, stop the application by signal instead!");
+
+        } catch (IOException ex) {
+            Logger.getLogger(ConsoleReader.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
@@ -1,13 +1,21 @@
 package mrev;
 
-import java.util.Scanner;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import mrev.server.ServerListener;
+import mrev.server.gameserver.components.Gameserver_Spool;
 
 /**
  * The InputHandler class is the main class which handle the fundamentals
  * of the application. Such fundamentals are command handling, startup and stopping
  * of the server listener.
  *
+ * The console is read by a console reader, which wakes up the input handler for each
+ * line, thus the input handler never blocks on the console and is stopped at once,
+ * such as by the shutdown hook on SIGTERM or Ctrl-C.
+ *
  * @author Richard Dahlgren
  * @since 2014-jun-29, 14:41:28
  * @version 0.0.1
@@ -16,7 +24,7 @@ public class InputHandler extends ThreadClass {
     
     // -------------------------------------------------------------------------
     
-    private final Scanner io;
+    private final ConsoleReader io;
     
     private final String NAME = "Revision";
     private final String VERSION = "0.1";
@@ -31,15 +39,31 @@ public class InputHandler extends ThreadClass {
      */
     public static void main(String[] args) {
         final InputHandler inputHandler = new InputHandler();
+        
+        Notifier.close(1000);
     }
 
     /**
      * This is the constructor which initialize and start the application on startup.
      */
     public InputHandler() {
-        this.io = new Scanner(System.in);
+        this.io = new ConsoleReader(new Runnable() {
+            
+            @Override
+            public void run() {
+                wakeup();// Handle the line at once
+            }
+        });
         this.serverListener = new ServerListener();
         
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                awaitStopped();
+            }
+        }, "Revision-ShutdownHook"));
+        
         super.start();
     }
     
@@ -57,6 +81,7 @@ public class InputHandler extends ThreadClass {
         Notifier.print(NAME + " [Version: " + VERSION + "]");
         Notifier.print("Waiting for commands ...");
         
+        io.startReading();
     }
     
     /**
@@ -64,18 +89,74 @@ public class InputHandler extends ThreadClass {
      * function, which is executed while the thread is running.
      * 
      * In this thread the executeWhile method handle the command input from
-     * the console.
-     * 
-     * NOTE: Future versions may let the server listener handle several commands
+     * the console, each queued line in order.
      */
     @Override
     public void executeWhile() {
         
-        if (!io.hasNext()) {
-            return;
+        String line;
+        while (!isStopping() && (line = io.poll()) != null) {
+            handleInput(line);
         }
+    }
+    
+    /**
+     * The InputHandler class extends ThreadClass and override the hasPendingWork
+     * function, lines queued while handling the input are handled right away.
+     * @return boolean If any lines are queued.
+     */
+    @Override
+    public boolean hasPendingWork() {
+        return io.isPending();
+    }
+    
+    /**
+     * The InputHandler class extends ThreadClass and override the isIdle
+     * function, the input handler is woken up by each queued line.
+     * @return boolean If the input handler is idle.
+     */
+    @Override
+    public boolean isIdle() {
+        return true;
+    }
+    
+    /**
+     * The InputHandler class extends ThreadClass and override the executeAfter
+     * function, which is executed before the thread stops.
+     * 
+     * In this thread the executeAfter method verifies that the server listener
+     * is stopping and stopping it if it's running.
+     */
+    @Override
+    public void executeAfter() {
         
-        final String input = io.next().toUpperCase();
+        if (!serverListener.isStopped()) {
+            
+            Notifier.print("Stopping running server listener ...");
+            
+            serverListener.stop();
+        }
+        
+        if (!serverListener.isFinished()) {
+            serverListener.join();
+        }
+        
+        Notifier.print("Application has stopped!");
+    }
+    
+    /**
+     * This method handle one line of console input, the command and it's arguments.
+     * @param line The line of input.
+     */
+    private void handleInput(String line) {
+        
+        final String[] args = line.split("\\s+", 3);
+        final String input = args[0].toUpperCase();
+        
+        if (args.length > 1) {
+            handleServerInput(input, args);
+            return;
+        }
         
         switch (input) {
             
@@ -83,6 +164,11 @@ public class InputHandler extends ThreadClass {
             {
                 Notifier.print("Attempting to start server listener ...");
                 {
+                    if (!serverListener.isStopped()) {
+                        Notifier.print("The server listener is already started!");
+                        break;
+                    }
+                    
                     serverListener.startListening();
                 }
                 break;
@@ -119,40 +205,172 @@ public class InputHandler extends ThreadClass {
             case "HELP":
             {
                 Notifier.print("Available commands:");
-                Notifier.print("START - Start servers");
-                Notifier.print("STOP  - Stop servers");
-                Notifier.print("EXIT  - Exit application");
+                Notifier.print("START                    - Start servers");
+                Notifier.print("STOP                     - Stop servers");
+                Notifier.print("EXIT                     - Exit application");
+                Notifier.print("START <port>             - Start server");
+                Notifier.print("STOP <port>              - Stop server");
+                Notifier.print("RESTART <port>           - Restart server");
+                Notifier.print("SEND <port> <command>    - Send command to server");
+                Notifier.print("WIPE <port> <type>       - Wipe stopped server (total, world, plugins or logs)");
+                Notifier.print("SNAPSHOT <port>          - Snapshot stopped server");
+                Notifier.print("RESTORE <port> [name]    - Restore stopped server from snapshot");
+                Notifier.print("PRUNE <port> [count]     - Keep latest snapshots of server, collect unused chunks");
+                Notifier.print("TAIL <port> [lines]      - Print recent console of server");
                 break;
             }
             default:
             {
-                Notifier.print("Could not recognize command: " + input);
+                Notifier.print("Could not recognize command: " + line);
                 break;
             }
         }
     }
     
     /**
-     * The InputHandler class extends ThreadClass and override the executeAfter
-     * function, which is executed before the thread stops.
-     * 
-     * In this thread the executeAfter method verifies that the server listener
-     * is stopping and stopping it if it's running.
+     * This method handle one line of console input addressing a server, submitting the
+     * server command to the server listener.
+     * @param input The command, in upper case.
+     * @param args The command, server port and remaining arguments.
      */
-    @Override
-    public void executeAfter() {
+    private void handleServerInput(String input, String[] args) {
         
-        if (!serverListener.isStopped()) {
+        final int port;
+        
+        try {
             
-            Notifier.print("Stopping running server listener ...");
+            port = Integer.parseInt(args[1]);
             
-            serverListener.stop();
+        } catch (NumberFormatException ex) {
+            Notifier.print("Invalid server port: " + args[1]);
+            return;
         }
         
-        if (!serverListener.isFinished()) {
-            serverListener.join();
+        final String argument = args.length > 2 ? args[2] : null;
+        final String command;
+        
+        switch (input) {
+            
+            case "TAIL":
+            {
+                printTail(port, argument);
+                return;
+            }
+            
+            case "START":
+            case "STOP":
+            case "RESTART":
+            case "SNAPSHOT":
+            {
+                command = input.toLowerCase();
+                break;
+            }
+            case "RESTORE":
+            {
+                command = argument == null ? "restore" : "restore:" + argument;
+                break;
+            }
+            case "PRUNE":
+            {
+                command = argument == null ? "snapshot:prune" : "snapshot:prune:" + argument;
+                break;
+            }
+            case "WIPE":
+            {
+                if (argument == null) {
+                    Notifier.print("Missing wipe type: total, world, plugins or logs");
+                    return;
+                }
+                
+                command = "wipe:" + argument.toLowerCase();
+                break;
+            }
+            case "SEND":
+            {
+                if (argument == null) {
+                    Notifier.print("Missing command to send to server on port: " + port);
+                    return;
+                }
+                
+                command = argument;
+                break;
+            }
+            default:
+            {
+                Notifier.print("Could not recognize command: " + args[0]);
+                return;
+            }
         }
         
-        Notifier.print("Application has stopped!");
+        if (!serverListener.submitCommand(port, command)) {
+            Notifier.print("The server listener must be started before commanding servers!");
+        }
+    }
+    
+    /**
+     * This method prints the recent console of a server, from memory or it's spool.
+     * @param port The server port.
+     * @param argument The number of lines, or null for 20 lines.
+     */
+    private void printTail(int port, String argument) {
+        
+        final int count;
+        
+        try {
+            
+            count = argument == null ? 20 : Integer.parseInt(argument.trim());
+            
+        } catch (NumberFormatException ex) {
+            Notifier.print("Invalid number of lines: " + argument);
+            return;
+        }
+        
+        final List<String> lines;
+        
+        try {
+            
+            lines = Gameserver_Spool.readTail(port, count);
+            
+        } catch (IOException ex) {
+            Logger.getLogger(InputHandler.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        
+        if (lines.isEmpty()) {
+            Notifier.print("No console lines of server on port: " + port);
+            return;
+        }
+        
+        for (String line : lines) {
+            Notifier.print(port + "> " + line);
+        }
+    }
+    
+    /**
+     * This method stops the application and waits until it stopped. Run by the shutdown hook.
+     */
+    private void awaitStopped() {
+        
+        if (isFinished()) {
+            return;
+        }
+        
+        Notifier.print("Shutdown requested ...");
+        
+        stop();
+        
+        while (!isFinished()) {
+            
+            try {
+                
+                Thread.sleep(100);
+                
+            } catch (InterruptedException ex) {
+                Logger.getLogger(InputHandler.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+        }
+        
+        Notifier.close(1000);
     }
 }
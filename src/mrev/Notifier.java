@@ -1,9 +1,28 @@
 package mrev;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
+ * The Notifier class prints the status messages of the application. A message is put into a
+ * preallocated ring of -Dmrev.log.capacity events (default 4096) and printed by a single
+ * writer thread, thus printing never blocks on the console. When the ring is full the message
+ * is dropped and counted, the drops are printed once there is room again.
+ *
+ * Messages below -Dmrev.log.level (default INFO) are discarded without allocating, the variants
+ * taking a value are concatenated by the writer thread, thus a hot path allocates nothing
+ * unless the message is printed. Each message is also written as a JSON line to the file
+ * -Dmrev.log.json, if set. The output is flushed once the ring is drained, or after at most
+ * 64 messages or 8 KB, thus a steady stream of messages is not held back.
  *
  * @author Richard Dahlgren
  * @since 2014-jul-07, 19:16:58
@@ -12,20 +31,452 @@ import java.util.Date;
 public class Notifier {
 
     // -------------------------------------------------------------------------
-    
+
+    /**
+     * The Level enum holds the levels of the messages, in order of severity.
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
     private static final String pattern = "HH:mm:ss";
-    private static final SimpleDateFormat format = new SimpleDateFormat(pattern);
-    
+    private static final String json_pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(16, Integer.getInteger("mrev.log.capacity", 4096)));
+    private static final Level LEVEL = parseLevel(System.getProperty("mrev.log.level", "INFO"));
+    private static final String JSON_FILE = System.getProperty("mrev.log.json");
+
+    private static final int FLUSH_EVENTS = 64;
+    private static final int FLUSH_BYTES = 8 * 1024;
+
+    private static final Event[] ring = new Event[CAPACITY];
+
+    private static final AtomicLong head = new AtomicLong(0);// Next sequence to be claimed
+    private static final AtomicLong dropped = new AtomicLong(0);
+    private static volatile long tail = 0;// Next sequence to be printed
+
+    private static volatile boolean waiting = false;
+    private static volatile boolean closed = false;
+
+    private static final Thread writer;
+
+    // Only used by the writer thread, or by the printing thread once closed
+    private static final Formatter formatter = new Formatter();
+
+    // -------------------------------------------------------------------------
+
+    static {
+
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Event();
+            ring[i].sequence = i - CAPACITY;// Not yet published
+        }
+
+        writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                write();
+            }
+        }, "Revision-Notifier");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
     // -------------------------------------------------------------------------
-    
+
     /**
      * This method print a message with the timetag
      * @param message The message to be printed
      */
     public static void print(String message) {
-        
-        String tag = "[" + format.format(new Date()) + "] ";
-        System.out.println(tag + message);
-        
+
+        if (isEnabled(Level.INFO)) {
+            publish(Level.INFO, message, null, 0, false);
+        }
+    }
+
+    /**
+     * This method prints a message of a level.
+     * @param level The message level.
+     * @param message The message to be printed.
+     */
+    public static void print(Level level, String message) {
+
+        if (isEnabled(level)) {
+            publish(level, message, null, 0, false);
+        }
+    }
+
+    /**
+     * This method prints a message of a level followed by a value, concatenated by the writer thread.
+     * @param level The message level.
+     * @param message The message to be printed.
+     * @param value The value appended to the message.
+     */
+    public static void print(Level level, String message, long value) {
+
+        if (isEnabled(level)) {
+            publish(level, message, null, value, true);
+        }
+    }
+
+    /**
+     * This method prints a message of a level followed by a value, concatenated by the writer thread.
+     * @param level The message level.
+     * @param message The message to be printed.
+     * @param value The value appended to the message, converted by String.valueOf.
+     */
+    public static void print(Level level, String message, Object value) {
+
+        if (isEnabled(level)) {
+            publish(level, message, value, 0, false);
+        }
+    }
+
+    /**
+     * This method verifies if messages of a level are printed.
+     * @param level The message level.
+     * @return boolean If messages of the level are printed.
+     */
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= LEVEL.ordinal();
+    }
+
+    /**
+     * This method prints the remaining messages and stops the writer thread. Messages printed
+     * from now on are printed by the printing thread itself.
+     * @param timeout The maximum time to wait for the remaining messages, in milliseconds.
+     */
+    public static void close(long timeout) {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        LockSupport.unpark(writer);
+
+        try {
+
+            writer.join(timeout);
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (writer.isAlive()) {
+            return;// Console blocked, the remaining messages are lost on exit
+        }
+
+        synchronized (formatter) {// Published while the writer thread exited
+
+            for (long next = tail; ring[(int) next & (CAPACITY - 1)].sequence == next; next++) {
+                final Event event = ring[(int) next & (CAPACITY - 1)];
+                formatter.print(event.timestamp, event.level, event.thread, event.message, event.object, event.value, event.has_value);
+            }
+
+            formatter.flush();
+        }
+    }
+
+    /**
+     * This method puts a message into the ring, or prints it at once if closed.
+     * @param level The message level.
+     * @param message The message.
+     * @param object The object value, or null.
+     * @param value The long value.
+     * @param has_value If the long value is appended.
+     */
+    private static void publish(Level level, String message, Object object, long value, boolean has_value) {
+
+        final long timestamp = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+
+        if (closed && !writer.isAlive()) {
+
+            synchronized (formatter) {
+                formatter.print(timestamp, level, thread, message, object, value, has_value);
+                formatter.flush();
+            }
+
+            return;
+        }
+
+        long sequence;
+
+        do {
+
+            sequence = head.get();
+
+            if (sequence - tail >= CAPACITY) {// Full
+                dropped.incrementAndGet();
+                return;
+            }
+
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        final Event event = ring[(int) sequence & (CAPACITY - 1)];
+
+        event.timestamp = timestamp;
+        event.level = level;
+        event.thread = thread;
+        event.message = message;
+        event.object = object;
+        event.value = value;
+        event.has_value = has_value;
+        event.sequence = sequence;// Published
+
+        if (waiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * This method prints the published messages in order until closed. Run by the writer thread.
+     */
+    private static void write() {
+
+        long next = tail;
+
+        while (true) {
+
+            final Event event = ring[(int) next & (CAPACITY - 1)];
+
+            if (event.sequence != next) {// Not yet published
+
+                formatter.flush();
+
+                final long drops = dropped.getAndSet(0);
+
+                if (drops > 0) {
+                    formatter.print(System.currentTimeMillis(), Level.WARN, "Revision-Notifier", "Dropped messages, the ring was full: ", null, drops, true);
+                    continue;
+                }
+
+                if (closed && head.get() == next) {
+                    formatter.flush();
+                    formatter.close();
+                    return;
+                }
+
+                waiting = true;
+
+                if (event.sequence != next) {
+
+                    if (closed) {
+                        Thread.yield();// Last messages being published
+                    } else {
+                        LockSupport.parkNanos(100 * 1000000L);// Unparked when published
+                    }
+                }
+
+                waiting = false;
+                continue;
+            }
+
+            formatter.print(event.timestamp, event.level, event.thread, event.message, event.object, event.value, event.has_value);
+
+            event.thread = null;
+            event.message = null;
+            event.object = null;
+
+            tail = ++next;// Slot released
+
+            if (formatter.pending >= FLUSH_EVENTS || formatter.output.length() >= FLUSH_BYTES) {
+                formatter.flush();
+            }
+        }
+    }
+
+    /**
+     * This method parses a level name.
+     * @param name The level name.
+     * @return Level The level, INFO if unknown.
+     */
+    private static Level parseLevel(String name) {
+
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            return Level.INFO;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Event class holds one message of the ring.
+     */
+    private static final class Event {
+
+        private volatile long sequence;
+
+        private long timestamp;
+        private Level level;
+        private String thread;
+        private String message;
+        private Object object;
+        private long value;
+        private boolean has_value;
+    }
+
+    /**
+     * The Formatter class formats the messages for the console and JSON lines file. The
+     * timestamps are formatted once each second and cached, only one thread formats at a time.
+     */
+    private static final class Formatter {
+
+        private final SimpleDateFormat format = new SimpleDateFormat(pattern);
+        private final SimpleDateFormat json_format = new SimpleDateFormat(json_pattern);
+
+        private final PrintStream console = System.out;
+        private final StringBuilder line = new StringBuilder(256);
+        private final StringBuilder output = new StringBuilder(4096);
+
+        private Writer json = null;
+        private boolean json_failed = false;
+
+        private int pending = 0;// Messages since the last flush
+
+        private long cached_second = Long.MIN_VALUE;
+        private String cached_tag;
+        private String cached_json_time;
+
+        /**
+         * This method formats one message into the pending output.
+         */
+        private void print(long timestamp, Level level, String thread, String message, Object object, long value, boolean has_value) {
+
+            final long second = timestamp / 1000;
+
+            if (second != cached_second) {
+                final Date date = new Date(second * 1000);
+                cached_second = second;
+                cached_tag = "[" + format.format(date) + "] ";
+                cached_json_time = json_format.format(date);// Milliseconds replaced per message
+            }
+
+            line.setLength(0);
+            line.append(message);
+
+            if (has_value) {
+                line.append(value);
+            } else if (object != null) {
+                line.append(object);
+            }
+
+            output.append(cached_tag);
+
+            if (level != Level.INFO) {
+                output.append(level.name()).append(": ");
+            }
+
+            output.append(line).append(System.lineSeparator());
+            pending++;
+
+            if (JSON_FILE != null && !json_failed) {
+                printJson(timestamp, level, thread);
+            }
+        }
+
+        /**
+         * This method writes the current line as a JSON line.
+         */
+        private void printJson(long timestamp, Level level, String thread) {
+
+            try {
+
+                if (json == null) {
+                    json = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(JSON_FILE, true), StandardCharsets.UTF_8));
+                }
+
+                final int millis = (int) (timestamp % 1000);
+
+                json.write("{\"time\":\"");
+                json.write(cached_json_time, 0, 20);// Up to and including the decimal point
+                json.write('0' + millis / 100);
+                json.write('0' + millis / 10 % 10);
+                json.write('0' + millis % 10);
+                json.write(cached_json_time, 23, cached_json_time.length() - 23);// Zone
+                json.write("\",\"level\":\"");
+                json.write(level.name());
+                json.write("\",\"thread\":\"");
+                writeEscaped(thread);
+                json.write("\",\"message\":\"");
+                writeEscaped(line);
+                json.write("\"}\n");
+
+            } catch (IOException ex) {
+                json_failed = true;
+                output.append("Failed to write JSON log file ").append(JSON_FILE).append(": ").append(ex.getMessage()).append(System.lineSeparator());
+            }
+        }
+
+        /**
+         * This method writes a JSON string value, escaping quotes, backslashes and control characters.
+         */
+        private void writeEscaped(CharSequence text) throws IOException {
+
+            for (int i = 0; i < text.length(); i++) {
+
+                final char c = text.charAt(i);
+
+                if (c == '"' || c == '\\') {
+                    json.write('\\');
+                    json.write(c);
+                } else if (c == '\n') {
+                    json.write("\\n");
+                } else if (c == '\r') {
+                    json.write("\\r");
+                } else if (c == '\t') {
+                    json.write("\\t");
+                } else if (c < 0x20) {
+                    json.write(String.format("\\u%04x", (int) c));
+                } else {
+                    json.write(c);
+                }
+            }
+        }
+
+        /**
+         * This method prints the pending output to the console and flushes the JSON lines file.
+         */
+        private void flush() {
+
+            pending = 0;
+
+            if (output.length() > 0) {
+                console.print(output);
+                console.flush();
+                output.setLength(0);
+            }
+
+            if (json != null) {
+
+                try {
+                    json.flush();
+                } catch (IOException ex) {
+                    json_failed = true;
+                }
+            }
+        }
+
+        /**
+         * This method closes the JSON lines file.
+         */
+        private void close() {
+
+            if (json != null) {
+
+                try {
+                    json.close();
+                } catch (IOException ex) {
+                    // Nothing left to report it to
+                }
+
+                json = null;
+            }
+        }
     }
 }
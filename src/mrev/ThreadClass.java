@@ -1,6 +1,9 @@
 package mrev;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -9,6 +12,13 @@ import java.util.logging.Logger;
  * program. A class will extend the ThreadClass for the fundamental parts of
  * a thread.
  *
+ * Each loop is scheduled by System.nanoTime, once each -Dmrev.tick.interval milliseconds
+ * (default 200). A thread with pending work runs it's next loop right away, at most once
+ * each -Dmrev.tick.minInterval milliseconds (default 10), and a thread which is woken up
+ * runs it's next loop at once. An idle thread doubles it's interval each loop, up to
+ * -Dmrev.tick.maxIdle milliseconds (default 1000). The duration, overruns and lag of the
+ * loops are measured and printed each -Dmrev.tick.report milliseconds (default 0, never).
+ *
  * @author Richard Dahlgren
  * @since 2014-jun-29, 20:13:49
  * @version 0.0.1
@@ -21,7 +31,27 @@ public class ThreadClass {
     private final AtomicBoolean stopping = new AtomicBoolean(false);
     private final AtomicBoolean finished = new AtomicBoolean(false);
     
-    private long readTime = 0;
+    private static final long TICK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(Long.getLong("mrev.tick.interval", 200));
+    private static final long MIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(Long.getLong("mrev.tick.minInterval", 10));
+    private static final long MAX_IDLE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(Long.getLong("mrev.tick.maxIdle", 1000));
+    private static final long REPORT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(Long.getLong("mrev.tick.report", 0));
+    
+    private final AtomicBoolean woken = new AtomicBoolean(false);
+    private volatile Thread runner = null;
+    
+    private volatile long ticks = 0;
+    private volatile long overruns = 0;
+    private volatile long last_duration = 0;
+    private volatile long max_duration = 0;
+    private volatile long total_duration = 0;
+    private volatile long last_lag = 0;
+    private volatile long max_lag = 0;
+    
+    private long next_scheduled = 0;
+    private long reported_ticks = 0;
+    private long reported_duration = 0;
+    private long reported_overruns = 0;
+    private long report_timestamp = 0;
     
     // -------------------------------------------------------------------------
     
@@ -58,30 +88,55 @@ public class ThreadClass {
         stopped.set(false);
         stopping.set(false);
         
+        runner = Thread.currentThread();
+        
         executeBefore();
         
+        long interval = TICK_INTERVAL;
+        
+        next_scheduled = System.nanoTime();
+        report_timestamp = next_scheduled;
+        
         while (!stopped.get() && !stopping.get()) {
             
-            readTime = System.currentTimeMillis();
+            final long start = System.nanoTime();
+            
+            woken.set(false);
          
             executeWhile();
             
-            final long diff = System.currentTimeMillis() - readTime;
-            if (diff < 200) {
-                try {
-                    Thread.sleep(200 - diff);
-                } catch (InterruptedException ex) {
-                    Logger.getLogger(ThreadClass.class.getName()).log(Level.SEVERE, null, ex);
-                }
+            final long end = System.nanoTime();
+            final long scheduled;
+            
+            if (woken.get()) {
+                interval = TICK_INTERVAL;
+                scheduled = end;// Woken up, next loop at once
+                
+            } else if (hasPendingWork()) {
+                interval = TICK_INTERVAL;
+                scheduled = Math.max(end, start + MIN_INTERVAL);
+                
+            } else {
+                interval = isIdle() ? Math.min(Math.max(MAX_IDLE_INTERVAL, TICK_INTERVAL), interval * 2) : TICK_INTERVAL;
+                scheduled = start + interval;
             }
+            
+            measure(start, end, scheduled);
+            
+            await(scheduled);// At once if overrun
         }
         
         stopped.set(true);
         stopping.set(false);
         
-        executeAfter();
-        
-        finished.set(true);
+        try {
+            
+            executeAfter();
+            
+        } finally {
+            runner = null;
+            finished.set(true);
+        }
     }
     
     /**
@@ -89,6 +144,121 @@ public class ThreadClass {
      */
     public void stop() {
         stopping.set(true);
+        wakeup();
+    }
+    
+    /**
+     * This method wakes up the thread, thus it's next loop is run at once. May be called from any thread.
+     */
+    public void wakeup() {
+        
+        if (woken.compareAndSet(false, true)) {
+            
+            final Thread thread = runner;
+            
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+    
+    /**
+     * This method returns the number of loops run.
+     * @return long The number of loops.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+    
+    /**
+     * This method returns the number of loops which took longer than their interval.
+     * @return long The number of overruns.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+    
+    /**
+     * This method returns the duration of the last loop.
+     * @return long The duration, in nanoseconds.
+     */
+    public long getLastTickDuration() {
+        return last_duration;
+    }
+    
+    /**
+     * This method returns the longest duration of a loop.
+     * @return long The duration, in nanoseconds.
+     */
+    public long getMaxTickDuration() {
+        return max_duration;
+    }
+    
+    /**
+     * This method returns the time the last loop started after it was scheduled.
+     * @return long The lag, in nanoseconds.
+     */
+    public long getLastTickLag() {
+        return last_lag;
+    }
+    
+    /**
+     * This method returns the longest time a loop started after it was scheduled.
+     * @return long The lag, in nanoseconds.
+     */
+    public long getMaxTickLag() {
+        return max_lag;
+    }
+    
+    /**
+     * This method creates a new unstarted daemon thread. A virtual thread is created
+     * instead if requested and supported by the running JVM.
+     * @param task The task to be executed by the thread.
+     * @param name The thread name.
+     * @param virtual If a virtual thread is preferred.
+     * @return Thread The unstarted thread.
+     */
+    public static Thread createThread(Runnable task, String name, boolean virtual) {
+        
+        if (virtual) {
+            
+            try {
+                
+                final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+                final Method setName = builder.getMethod("name", String.class);
+                final Method unstarted = builder.getMethod("unstarted", Runnable.class);
+                
+                return (Thread) unstarted.invoke(setName.invoke(ofVirtual.invoke(null), name), task);
+                
+            } catch (ReflectiveOperationException ex) {
+                // Virtual threads not supported, fall back on a platform thread
+            }
+        }
+        
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        
+        return thread;
+    }
+    
+    /**
+     * This method is called after each loop, verifying if there is work waiting, thus the next
+     * loop shall be run right away. May be overridden, only work which the next loop is able to
+     * progress shall be reported, otherwise the thread would spin.
+     * @return boolean If there is work waiting.
+     */
+    public boolean hasPendingWork() {
+        return false;
+    }
+    
+    /**
+     * This method is called after each loop without pending work, verifying if the thread is
+     * idle, thus the interval of it's loops may back off. May be overridden.
+     * @return boolean If the thread is idle.
+     */
+    public boolean isIdle() {
+        return false;
     }
     
     /**
@@ -114,4 +284,76 @@ public class ThreadClass {
     public void executeAfter() {
         
     }
+    
+    /**
+     * This method waits until the next loop is scheduled, the thread is woken up or stopping.
+     * @param scheduled The time the next loop is scheduled, by System.nanoTime.
+     */
+    private void await(long scheduled) {
+        
+        long remaining;
+        
+        while (!woken.get() && !stopping.get() && (remaining = scheduled - System.nanoTime()) > 0) {
+            
+            LockSupport.parkNanos(this, remaining);
+            
+            if (Thread.interrupted()) {
+                Logger.getLogger(ThreadClass.class.getName()).log(Level.SEVERE, "Interrupted while waiting for the next loop");
+                return;
+            }
+        }
+    }
+    
+    /**
+     * This method measures a loop and prints the loop metrics when the report interval passed.
+     * Called by the thread itself, the metrics are only written by this thread.
+     * @param start The time the loop started, by System.nanoTime.
+     * @param end The time the loop ended, by System.nanoTime.
+     * @param scheduled The time the next loop is scheduled, by System.nanoTime.
+     */
+    private void measure(long start, long end, long scheduled) {
+        
+        final long duration = end - start;
+        final long lag = Math.max(0, start - next_scheduled);
+        
+        next_scheduled = Math.max(end, scheduled);
+        
+        ticks++;
+        total_duration += duration;
+        last_duration = duration;
+        last_lag = lag;
+        
+        if (duration > max_duration) {
+            max_duration = duration;
+        }
+        
+        if (lag > max_lag) {
+            max_lag = lag;
+        }
+        
+        if (scheduled - end < 0) {
+            overruns++;
+        }
+        
+        if (REPORT_INTERVAL <= 0 || end - report_timestamp < REPORT_INTERVAL) {
+            return;
+        }
+        
+        final long count = ticks - reported_ticks;
+        final long average = count > 0 ? (total_duration - reported_duration) / count : 0;
+        
+        Notifier.print(Thread.currentThread().getName() + ": " + count + " loops, "
+            + TimeUnit.NANOSECONDS.toMicros(average) + " us average, "
+            + TimeUnit.NANOSECONDS.toMicros(max_duration) + " us max, "
+            + (overruns - reported_overruns) + " overruns, "
+            + TimeUnit.NANOSECONDS.toMicros(max_lag) + " us max lag");
+        
+        reported_ticks = ticks;
+        reported_duration = total_duration;
+        reported_overruns = overruns;
+        report_timestamp = end;
+        
+        max_duration = 0;// Maximums per report
+        max_lag = 0;
+    }
 }
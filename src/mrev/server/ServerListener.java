@@ -1,16 +1,18 @@
 package mrev.server;
 
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import mrev.Notifier;
 import mrev.ThreadClass;
+import mrev.server.components.Server_ConsoleTailServer;
 import mrev.server.components.Server_Executor;
 import mrev.server.components.Server_Processes;
+import mrev.server.components.Server_Shutdown;
 import mrev.server.components.Server_Start;
+import mrev.server.components.Server_Supervisor;
 import mrev.server.database.DatabaseHandler;
+import mrev.server.database.DatabaseLogShipper;
 import mrev.server.gameserver.Gameserver;
-import mrev.server.gameserver.components.Gameserver_IoStream;
 import mrev.server.gameserver.components.Gameserver_Logger;
 
 /**
@@ -28,11 +30,40 @@ public class ServerListener extends ThreadClass implements Runnable {
     private Thread thread;
     
     private final DatabaseHandler db = new DatabaseHandler();
+    private final DatabaseLogShipper log_shipper = new DatabaseLogShipper(db);
     
     public static final Server_Processes server_processes = new Server_Processes();
     
     public static final Server_Start server_start = new Server_Start();
+    public static final Server_Shutdown server_shutdown = new Server_Shutdown(server_processes);
     private final Server_Executor server_executor = new Server_Executor();
+    private final Server_Supervisor server_supervisor = new Server_Supervisor();
+    private final Server_ConsoleTailServer console_tail = new Server_ConsoleTailServer();
+    
+    private boolean updating_without_db = false;
+    private volatile boolean shutting_down = false;
+    
+    private int[] update_ports = new int[16];
+    private int update_count = 0;
+    
+    private static final long SUPERVISION_DEADLINE = Long.getLong("mrev.supervisor.deadline", 150);
+    private static final long EXIT_FLUSH_TIMEOUT = 10 * 1000;// 10 Seconds
+    
+    private final Server_Supervisor.Task update_task = new Server_Supervisor.Task() {
+        
+        @Override
+        public void run(int port) {
+            updateGameserver(port);
+        }
+    };
+    
+    private final Server_Processes.ExitListener exit_listener = new Server_Processes.ExitListener() {
+        
+        @Override
+        public void exited(int port, Gameserver gameserver) {
+            clearExitedGameserver(port, gameserver);
+        }
+    };
     
     // -------------------------------------------------------------------------
     
@@ -41,7 +72,7 @@ public class ServerListener extends ThreadClass implements Runnable {
      * because TheadClass will only run in the thread it was called from.
      */
     public void startListening() {
-        thread = new Thread(this);
+        thread = new Thread(this, "Revision-Listener");
         thread.start();
     }
 
@@ -59,6 +90,10 @@ public class ServerListener extends ThreadClass implements Runnable {
      */
     public void join() {
         
+        if (thread == null) {
+            return;// Never started
+        }
+        
         try {
             
             thread.join(0);
@@ -68,6 +103,23 @@ public class ServerListener extends ThreadClass implements Runnable {
         }
     }
     
+    /**
+     * This method submits a server command, executed by the server listener at once.
+     * May be called from any thread.
+     * @param port The server port.
+     * @param command The server command.
+     * @return boolean If the command was submitted, false if the server listener is not running.
+     */
+    public boolean submitCommand(int port, String command) {
+        
+        if (isStopped() || isStopping()) {
+            return false;
+        }
+        
+        server_executor.getLocalCommandSource().submit(port, command);
+        return true;
+    }
+    
     /**
      * The ServerListener class extends ThreadClass and override the executeBefore
      * function, which is executed before the thread starts.
@@ -79,6 +131,21 @@ public class ServerListener extends ThreadClass implements Runnable {
         
         db.open();
         
+        server_processes.setExitListener(exit_listener);
+        
+        server_executor.getLocalCommandSource().setListener(new Runnable() {
+            
+            @Override
+            public void run() {
+                wakeup();// Execute submitted commands at once
+            }
+        });
+        
+        log_shipper.startShipping();
+        server_supervisor.start();
+        server_executor.open();
+        console_tail.open();
+        
         // Verify connection
         if (db.verifyConnection()) {
             Notifier.print("MySQL connection verified!");
@@ -96,9 +163,11 @@ public class ServerListener extends ThreadClass implements Runnable {
         
         Notifier.print("Attempting to start waiting servers ...");
         
-        // Start waiting servers
-        if (server_start.startServers(db)) {
-            Notifier.print("Successfully started waiting servers (" + server_processes.getNumberOfGameservers() + ")!");
+        // Start waiting servers, launched by the launch scheduler
+        final int queued = server_start.startServers(db);
+        
+        if (queued >= 0) {
+            Notifier.print("Successfully queued waiting servers (" + queued + ")!");
         } else {
             Notifier.print("Failed to start waiting servers!");
         }
@@ -116,168 +185,183 @@ public class ServerListener extends ThreadClass implements Runnable {
     @Override
     public void executeWhile() {
         
-        boolean useDb = true;
+        final boolean useDb = db.verifyConnection();// Verify MySQL connection, reconnected in the background
         
-        if (!db.verifyConnection()) {// Verify MySQL connection
-            Notifier.print("Performing an update without MySQL ...");
-            useDb = false;
+        if (!useDb && !updating_without_db) {
+            Notifier.print("Performing updates without MySQL ...");
         }
         
+        updating_without_db = !useDb;
+        
         // Execute commands
-        if (useDb) {
-            server_executor.executeCommands(db);
-        }
+        server_executor.executeCommands(db, useDb);
         
-        // Update logs and flag finished servers
-        for (Map.Entry<Integer, Gameserver> entry : server_processes.getSetOfGameservers()) {
-            
-            updateGameserver(entry, false);
-            
-        }
+        // Launch queued servers
+        server_start.scheduleLaunches(db);
         
-        clearStoppedGameservers(false);
+        // Read output of servers in polling mode, exited servers are cleared as they exit
+        if (Gameserver_Logger.isPolling()) {
+            update_count = collectUpdatePorts();
+            server_supervisor.supervise(update_ports, update_count, update_task, SUPERVISION_DEADLINE);
+        }
+    }
+    
+    /**
+     * The ServerListener class extends ThreadClass and override the hasPendingWork
+     * function, which is called after each loop.
+     * 
+     * Commands waiting to be polled are handled by the next loop right away.
+     * @return boolean If there is work waiting.
+     */
+    @Override
+    public boolean hasPendingWork() {
+        return server_executor.hasPendingCommands();
+    }
+    
+    /**
+     * The ServerListener class extends ThreadClass and override the isIdle
+     * function, which is called after each loop without pending work.
+     * 
+     * The server listener is idle while no commands, launches or polled output are waiting.
+     * @return boolean If the server listener is idle.
+     */
+    @Override
+    public boolean isIdle() {
+        return update_count == 0 && !server_executor.isBusy() && !server_start.isLaunchPending();
     }
     
     /**
      * The ServerListener class extends ThreadClass and override the executeAfter
      * function, which is executed before the thread stops.
      * 
-     * In this thread the executeAfter method save the remaining data of the temporary
-     * log storage to the database. This method also stop alive servers, set those to start on restart and close the MySQL connection.
+     * In this thread the executeAfter method ask all servers to stop at once, set those to start on restart
+     * and update their logs until the last server exited. The remaining data is then shipped by the log shipper
+     * before the MySQL connection is closed.
      */
     @Override
     public void executeAfter() {
         
+        shutting_down = true;// Servers exiting from now on shall start on restart
+        
+        server_executor.close();
+        
+        // Queued servers are started on restart instead
+        server_start.cancelLaunches(db, true);
+        
         if (!db.verifyConnection()) {
+            Notifier.print("Stopping servers without an established MySQL connection!");
+        }
+        
+        // Stop all servers at once, each escalated on it's own timer
+        server_shutdown.stopAll();
+        
+        final long deadline = System.currentTimeMillis() + server_shutdown.getTimeout();
+        
+        while (!server_shutdown.awaitCleared(200) && System.currentTimeMillis() < deadline) {
             
-            Notifier.print("Closing without an established MySQL connection!");
-            
-        } else {
-            
-            Notifier.print("MySQL connection verified!");
-            
-            /*
-                One server may only save 20 log-rows to database at once, thus 5 tries should be enough but
-                10 tries may be safer.
-            */
-            long timestamp = 0;
-            for (int tries = 0; tries < 10; tries++) {
-                
-                timestamp = System.currentTimeMillis();
-                
-                if (!server_processes.isExistingGameservers()) {
-                    break;
-                }
-                
-                // Update logs, stop servers and flag finished servers
-                for (Map.Entry<Integer, Gameserver> entry : server_processes.getSetOfGameservers()) {
-
-                    updateGameserver(entry, true);
-
-                }
-
-                clearStoppedGameservers(true);
-            
-                long timedifference = System.currentTimeMillis() - timestamp;
-                if (timedifference < 2000) {
-                    try {
-                        Thread.sleep(2000 - timedifference);
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(ServerListener.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
-                
+            // Read output of servers in polling mode, exited servers are cleared as they exit
+            if (Gameserver_Logger.isPolling()) {
+                update_count = collectUpdatePorts();
+                server_supervisor.supervise(update_ports, update_count, update_task, SUPERVISION_DEADLINE);
             }
-            
-            // Notify servers which failed to stop and/or log all remaining data
-            if (server_processes.isExistingGameservers()) {
-
-                for (Map.Entry<Integer, Gameserver> entry : server_processes.getSetOfGameservers()) {
-
-                    final int port = entry.getKey();
-                    Notifier.print("Failed to stop and/or log remaining data from server on port: " + port);
-
-                }
-            }
-            
-            db.close();
         }
         
+        server_shutdown.close();
+        
+        // Notify servers which failed to stop and/or log all remaining data
+        for (int port : server_processes.getPorts()) {
+            Notifier.print("Failed to stop and/or log remaining data from server on port: " + port);
+        }
+        
+        server_supervisor.shutdown();
+        console_tail.close();
+        
+        // Ship remaining logs
+        log_shipper.stop();
+        log_shipper.join();
+        
+        db.close();
+        
         Notifier.print("Successfully stopped the server listener!");
     }
     
     /**
-     * This method update the Gameservers by reading and updating logs, also removing stopped Gameservers
-     * @param entry The Entry containing Gameserver port and class reference
-     * @param stopAll If all servers shall be stopped
+     * This method update the Gameservers by reading and updating logs.
+     * Run by the server supervisor, in parallel for different Gameservers but never concurrently for the same one
+     * @param port The Gameserver port
      */
-    private void updateGameserver(Map.Entry<Integer, Gameserver> entry, boolean stopAll) {
+    private void updateGameserver(int port) {
         
-        final int port = entry.getKey();
-        final Gameserver gameserver = (Gameserver) entry.getValue();
-        final Gameserver_IoStream gamserver_iostream = gameserver.getIoStream();
-        final Gameserver_Logger gameserver_logger = gameserver.getLogger();
-
-        final boolean isOutStreamReady = gamserver_iostream.isOutStreamReady();
-        final boolean isTemporaryLogEmpty = gameserver_logger.isTemporaryLogEmpty();
-        final boolean isAlive = gameserver.getProcess().isAlive();
-
-        // Update temporary logger
-        if (isOutStreamReady) {
-            gameserver_logger.writeOutStreamToTemporaryLog(gamserver_iostream);
-        }
-
-        // Update primary logger
-        if (!isTemporaryLogEmpty) {
-            gameserver_logger.writeTemporaryLogToDb(port, db);
+        final Gameserver gameserver = server_processes.getGameserver(port);
+        
+        if (gameserver == null) {// Reserved, still starting
+            return;
         }
         
-        // Stop all Gameservers
-        if (stopAll &&
-            isAlive) {
-            gameserver.sendStop(port);
+        // Append the output to the spool, in polling mode, shipped by the log shipper
+        gameserver.getLogger().readOutStream(gameserver.getIoStream());
+    }
+    
+    /**
+     * This method collects the ports of the Gameservers with output waiting to be read,
+     * thus idle Gameservers are not supervised
+     * @return The number of collected ports
+     */
+    private int collectUpdatePorts() {
+        
+        final int[] ports = server_processes.getPorts();
+        
+        if (update_ports.length < ports.length) {
+            update_ports = new int[Math.max(ports.length, update_ports.length * 2)];
         }
-
-        // Remove stopped servers
-        if (!isOutStreamReady &&
-            isTemporaryLogEmpty &&
-            !isAlive) {
-
-            Notifier.print("Server on port " + port + " was flagged as stopped!");
-            server_processes.addStoppedGameserver(port);
+        
+        int count = 0;
+        
+        for (int port : ports) {
+            
+            final Gameserver gameserver = server_processes.getGameserver(port);
+            
+            if (gameserver != null && gameserver.getLogger().isUpdatePending(gameserver.getIoStream())) {
+                update_ports[count++] = port;
+            }
         }
+        
+        return count;
     }
     
     /**
-     * This method clear the stopped Gameservers
-     * @param onlineOnRestart If the server shall start on (core) restart
+     * This method clear a Gameserver as soon as it's process exited. The remaining output is
+     * flushed to it's spool, the status is updated and the port released.
+     * Run by the exit watcher of the Gameserver, exclusive of it's supervision
+     * @param port The Gameserver port
+     * @param gameserver The exited Gameserver
      */
-    private void clearStoppedGameservers(boolean onlineOnRestart) {
+    private void clearExitedGameserver(int port, final Gameserver gameserver) {
+        
+        if (server_processes.getGameserver(port) != gameserver) {
+            return;// Already cleared
+        }
         
-        if (server_processes.isExistingStoppedGameservers()) {
+        server_processes.addStoppedGameserver(port);
+        Notifier.print("Server on port " + port + " exited with code " + gameserver.getProcess().getExitValue() + "!");
+        
+        server_supervisor.runExclusive(port, new Server_Supervisor.Task() {
             
-            for (Integer port : server_processes.getStoppedGameservers()) {
-                
-                final Gameserver gameserver = server_processes.getGameserver(port);
-                
-                if (gameserver.getIoStream().close()) {
-                    Notifier.print("Closed readers for server on port: " + port);
-                } else {
-                    Notifier.print("Failed to close readers for server on port: " + port);
-                }
-                
-                if (server_start.updateServerStatusAndOnCoreRestart(db, false, onlineOnRestart, port)) {
-                    Notifier.print("Updated status for server on port: " + port);
-                } else {
-                    Notifier.print("Failed to update status for server on port: " + port);
-                }
-                
-                server_processes.removeGameserver(port);
-                Notifier.print("Server cleared on port: " + port);
-                
+            @Override
+            public void run(int port) {
+                gameserver.getLogger().flush(gameserver.getIoStream(), EXIT_FLUSH_TIMEOUT);
             }
-            
-            server_processes.removeStoppedGameservers();
+        });
+        
+        if (!gameserver.getIoStream().close()) {
+            Notifier.print(Notifier.Level.WARN, "Failed to close readers for server on port: " + port);
         }
+        
+        if (!server_start.updateServerStatusAndOnCoreRestart(db, false, shutting_down, port)) {
+            Notifier.print(Notifier.Level.WARN, "Failed to update status for server on port: " + port);
+        }
+        
+        server_processes.removeGameserver(port);
+        Notifier.print(Notifier.Level.DEBUG, "Server cleared on port: ", port);
     }
 }
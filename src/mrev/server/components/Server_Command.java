@@ -0,0 +1,82 @@
+package mrev.server.components;
+
+/**
+ * The Server_Command class holds one server command waiting to be executed and the
+ * command source it was received from.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 14:41:05
+ * @version 0.0.1
+ */
+public class Server_Command {
+    
+    // -------------------------------------------------------------------------
+    
+    private final Server_CommandSource source;
+    private final long id;
+    private final int port;
+    private final String command;
+    private volatile int status;
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * This is the constructor which initialize a new command.
+     * @param source The command source.
+     * @param id The command id, unique and increasing within the source.
+     * @param port The server port.
+     * @param command The server command.
+     * @param status The server command status.
+     */
+    public Server_Command(Server_CommandSource source, long id, int port, String command, int status) {
+        this.source = source;
+        this.id = id;
+        this.port = port;
+        this.command = command;
+        this.status = status;
+    }
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * @return Server_CommandSource The command source.
+     */
+    public Server_CommandSource getSource() {
+        return source;
+    }
+    
+    /**
+     * @return long The command id, unique and increasing within the source.
+     */
+    public long getId() {
+        return id;
+    }
+    
+    /**
+     * @return int The server port.
+     */
+    public int getPort() {
+        return port;
+    }
+    
+    /**
+     * @return String The server command.
+     */
+    public String getCommand() {
+        return command;
+    }
+    
+    /**
+     * @return int The server command status.
+     */
+    public int getStatus() {
+        return status;
+    }
+    
+    /**
+     * @param status The server command status.
+     */
+    public void setStatus(int status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,169 @@
+package mrev.server.components;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import mrev.Notifier;
+import mrev.ThreadClass;
+
+/**
+ * The Server_CommandEndpoint class accepts server commands on a local TCP socket, bound to the
+ * loopback address only, and submits them to the local command source. Each line holds one
+ * command as "<port> <command>", e.g. "25565 restart", and is answered by "OK" or "ERROR <reason>".
+ * The endpoint is enabled by setting -Dmrev.commands.port.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 15:10:48
+ * @version 0.0.1
+ */
+public class Server_CommandEndpoint implements Runnable {
+    
+    // -------------------------------------------------------------------------
+    
+    private static final int PORT = Integer.getInteger("mrev.commands.port", 0);
+    
+    private final Server_LocalCommandSource source;
+    
+    private ServerSocket socket = null;
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * This is the constructor which initialize the endpoint.
+     * @param source The local command source receiving the commands.
+     */
+    public Server_CommandEndpoint(Server_LocalCommandSource source) {
+        this.source = source;
+    }
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * This method opens the endpoint, if enabled, and starts accepting clients.
+     */
+    public void open() {
+        
+        if (PORT <= 0) {
+            return;
+        }
+        
+        try {
+            
+            socket = new ServerSocket(PORT, 50, InetAddress.getLoopbackAddress());
+            
+        } catch (IOException ex) {
+            Notifier.print("Failed to open command endpoint on port " + PORT + ": " + ex.getMessage());
+            return;
+        }
+        
+        ThreadClass.createThread(this, "Revision-CommandEndpoint", false).start();
+        
+        Notifier.print("Accepting commands on local port: " + PORT);
+    }
+    
+    /**
+     * This method closes the endpoint.
+     */
+    public void close() {
+        
+        if (socket == null) {
+            return;
+        }
+        
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // Closing either way
+        }
+        
+        socket = null;
+    }
+    
+    /**
+     * This method accepts clients until the endpoint is closed.
+     */
+    @Override
+    public void run() {
+        
+        final ServerSocket server = socket;
+        
+        while (server != null && !server.isClosed()) {
+            
+            try {
+                
+                final Socket client = server.accept();
+                
+                ThreadClass.createThread(new Runnable() {
+                    
+                    @Override
+                    public void run() {
+                        handle(client);
+                    }
+                }, "Revision-CommandClient", true).start();
+                
+            } catch (IOException ex) {
+                // Endpoint closed
+            }
+        }
+    }
+    
+    /**
+     * This method reads the commands of one client.
+     * @param client The client socket.
+     */
+    private void handle(Socket client) {
+        
+        try (Socket s = client) {
+            
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                
+                writer.write(submit(line.trim()));
+                writer.newLine();
+                writer.flush();
+            }
+            
+        } catch (IOException ex) {
+            // Client disconnected
+        }
+    }
+    
+    /**
+     * This method parses and submits one command line.
+     * @param line The command line.
+     * @return String The reply.
+     */
+    private String submit(String line) {
+        
+        final int split = line.indexOf(' ');
+        
+        if (split < 1 || split == line.length() - 1) {
+            return "ERROR expected \"<port> <command>\"";
+        }
+        
+        final int port;
+        
+        try {
+            port = Integer.parseInt(line.substring(0, split));
+        } catch (NumberFormatException ex) {
+            return "ERROR invalid port";
+        }
+        
+        if (port < 1 || port > 65535) {
+            return "ERROR invalid port";
+        }
+        
+        source.submit(port, line.substring(split + 1).trim());
+        
+        return "OK";
+    }
+}
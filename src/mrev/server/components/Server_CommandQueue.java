@@ -0,0 +1,232 @@
+package mrev.server.components;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mrev.server.database.DatabaseHandler;
+
+/**
+ * The Server_CommandQueue class executes the claimed server commands. Each port has it's own
+ * FIFO queue which is drained by at most one worker at a time, thus the commands of a port are
+ * executed in order while commands of different ports are executed in parallel. A command
+ * which is not yet finished, such as a restart waiting for the server to stop, holds back
+ * the commands behind it until it's retried on a later loop.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 15:44:12
+ * @version 0.0.1
+ */
+public class Server_CommandQueue {
+
+    // -------------------------------------------------------------------------
+
+    private static final int THREADS = Integer.getInteger("mrev.commands.threads", 4);
+
+    private final Server_Executor executor;
+    private ExecutorService workers = null;
+
+    private final Map<Integer, PortQueue> queues = new HashMap<>();
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the command queue.
+     * @param executor The executor of single commands.
+     */
+    public Server_CommandQueue(Server_Executor executor) {
+        this.executor = executor;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method starts the workers of a run, commands left waiting by the last run are
+     * scheduled again by the next loop.
+     */
+    public synchronized void start() {
+
+        if (workers != null) {
+            return;
+        }
+
+        workers = Executors.newFixedThreadPool(Math.max(1, THREADS), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+
+                final Thread thread = new Thread(r, "Revision-Commands-" + count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method appends claimed commands to the queues of their ports.
+     * @param commands The claimed commands, in order.
+     */
+    public synchronized void add(List<Server_Command> commands) {
+
+        for (Server_Command command : commands) {
+
+            PortQueue queue = queues.get(command.getPort());
+
+            if (queue == null) {
+                queue = new PortQueue(command.getPort());
+                queues.put(command.getPort(), queue);
+            }
+
+            queue.commands.add(command);
+        }
+    }
+
+    /**
+     * This method schedules a worker for each port with waiting commands and no worker.
+     * @param db The database reference.
+     */
+    public synchronized void schedule(final DatabaseHandler db) {
+
+        if (workers == null) {
+            return;// Not running
+        }
+
+        for (final PortQueue queue : queues.values()) {
+
+            if (queue.scheduled || queue.commands.isEmpty()) {
+                continue;
+            }
+
+            queue.scheduled = true;
+
+            workers.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    drain(db, queue);
+                }
+            });
+        }
+    }
+
+    /**
+     * This method verifies if any commands are waiting.
+     * @return boolean If any commands are waiting.
+     */
+    public synchronized boolean isPending() {
+
+        for (PortQueue queue : queues.values()) {
+            if (!queue.commands.isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method stops the workers, waiting for running commands to finish. The workers
+     * are started again by the next run.
+     */
+    public void shutdown() {
+
+        final ExecutorService stopped;
+
+        synchronized (this) {
+
+            stopped = workers;
+            workers = null;
+        }
+
+        if (stopped == null) {
+            return;
+        }
+
+        stopped.shutdown();
+
+        try {
+
+            stopped.awaitTermination(30, TimeUnit.SECONDS);
+
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Server_CommandQueue.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * This method executes the commands of one port in order until the queue is empty or a
+     * command is not yet finished.
+     * @param db The database reference.
+     * @param queue The port queue.
+     */
+    private void drain(DatabaseHandler db, PortQueue queue) {
+
+        try {
+
+            while (true) {
+
+                final Server_Command command;
+
+                synchronized (this) {
+
+                    command = queue.commands.peek();
+
+                    if (command == null) {
+                        queues.remove(queue.port);
+                        return;
+                    }
+                }
+
+                try {
+
+                    if (!executor.executeCommand(db, command)) {
+                        return;// Not yet finished, retried on a later loop
+                    }
+
+                } catch (RuntimeException ex) {// Failed commands are dropped, not retried
+                    Logger.getLogger(Server_CommandQueue.class.getName()).log(Level.SEVERE, "Command failed on server with port: " + queue.port, ex);
+                }
+
+                command.getSource().acknowledge(db, command);
+
+                synchronized (this) {
+                    queue.commands.poll();
+                }
+            }
+
+        } finally {
+
+            synchronized (this) {
+                queue.scheduled = false;
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The PortQueue class holds the waiting commands of one port.
+     */
+    private static final class PortQueue {
+
+        private final int port;
+        private final ArrayDeque<Server_Command> commands = new ArrayDeque<>();
+        private boolean scheduled = false;
+
+        private PortQueue(int port) {
+            this.port = port;
+        }
+    }
+}
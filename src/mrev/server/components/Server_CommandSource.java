@@ -0,0 +1,47 @@
+package mrev.server.components;
+
+import java.util.List;
+import mrev.server.database.DatabaseHandler;
+
+/**
+ * The Server_CommandSource interface is a source of server commands for the Server_Executor.
+ * Each command is claimed once by a poll and kept by the Server_CommandQueue until finished, it's
+ * then acknowledged to it's source. Status updates and acknowledgements may be called from the
+ * command workers.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 14:43:51
+ * @version 0.0.1
+ */
+public interface Server_CommandSource {
+    
+    /**
+     * This method verifies if the source requires the database.
+     * @return boolean If the source requires the database.
+     */
+    boolean isUsingDatabase();
+    
+    /**
+     * This method claims the new commands, in order, and adds them to the list.
+     * @param db The database reference.
+     * @param commands The list receiving the commands.
+     */
+    void poll(DatabaseHandler db, List<Server_Command> commands);
+    
+    /**
+     * This method updates the status of a command which is not yet finished.
+     * @param db The database reference.
+     * @param command The command.
+     * @param status The new status.
+     * @return boolean If the status was updated.
+     */
+    boolean updateStatus(DatabaseHandler db, Server_Command command, int status);
+    
+    /**
+     * This method acknowledges a finished command, removing it from the source.
+     * @param db The database reference.
+     * @param command The command.
+     * @return boolean If the command was removed.
+     */
+    boolean acknowledge(DatabaseHandler db, Server_Command command);
+}
@@ -0,0 +1,538 @@
+package mrev.server.components;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mrev.Notifier;
+import mrev.ThreadClass;
+import mrev.server.gameserver.components.Gameserver_Logger;
+
+/**
+ * The Server_ConsoleTailServer class streams the live console lines of the gameservers to
+ * local clients over a TCP socket, bound to the loopback address only. A client subscribes to
+ * gameservers by the line "subscribe <port> [<port> ...]" and unsubscribes by "unsubscribe
+ * <port> [<port> ...]", each answered by "OK" or "ERROR <reason>". Each console line is then
+ * sent as "<port> <sequence> <line>", the sequence number of the line in the spool of the
+ * gameserver, -1 if not spooled. The server is enabled by setting -Dmrev.console.port.
+ *
+ * All clients are served by one thread using non-blocking channels. The lines are fanned out
+ * by the reading thread of each gameserver into a bounded queue of -Dmrev.console.queue lines
+ * (default 1024) per client, never blocking the reading thread. A client not keeping up, thus
+ * overflowing it's queue, is told so by "ERROR too slow" and dropped. At most
+ * -Dmrev.console.clients clients (default 256) are connected at once.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 23:02:45
+ * @version 0.0.1
+ */
+public class Server_ConsoleTailServer implements Runnable, Gameserver_Logger.LineListener {
+
+    // -------------------------------------------------------------------------
+
+    private static final int PORT = Integer.getInteger("mrev.console.port", 0);
+    private static final int QUEUE = Integer.getInteger("mrev.console.queue", 1024);
+    private static final int CLIENTS = Integer.getInteger("mrev.console.clients", 256);
+    private static final int MAX_REQUEST = 1024;// Bytes of one client line
+    private static final int OUTPUT = 16 * 1024;// Bytes per write
+
+    private static final byte[] OK = "OK\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ConcurrentHashMap<Integer, CopyOnWriteArrayList<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Subscriber> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeup_pending = new AtomicBoolean(false);
+
+    private volatile Selector selector = null;
+    private volatile boolean closed = false;
+
+    private ServerSocketChannel socket = null;
+    private Thread thread = null;
+
+    private int clients = 0;
+    private long dropped = 0;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method opens the server, if enabled, and starts serving clients.
+     */
+    public void open() {
+
+        if (PORT <= 0) {
+            return;
+        }
+
+        closed = false;// Closed by the last run
+        subscribers.clear();
+        ready.clear();
+        wakeup_pending.set(false);
+        clients = 0;
+        dropped = 0;
+
+        try {
+
+            selector = Selector.open();
+            socket = ServerSocketChannel.open();
+            socket.configureBlocking(false);
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 50);
+            socket.register(selector, SelectionKey.OP_ACCEPT);
+
+        } catch (IOException ex) {
+            Notifier.print("Failed to open console tail server on port " + PORT + ": " + ex.getMessage());
+            closeQuietly();
+            return;
+        }
+
+        Gameserver_Logger.setLineListener(this);
+
+        thread = ThreadClass.createThread(this, "Revision-ConsoleTail", false);
+        thread.start();
+
+        Notifier.print("Streaming consoles on local port: " + PORT);
+    }
+
+    /**
+     * This method closes the server and disconnects all clients.
+     */
+    public void close() {
+
+        if (thread == null) {
+            return;
+        }
+
+        Gameserver_Logger.setLineListener(null);
+
+        closed = true;
+        selector.wakeup();
+
+        try {
+
+            thread.join(1000);
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        thread = null;
+    }
+
+    /**
+     * This method fans out a console line to the subscribers of the gameserver. Called from
+     * the thread reading the outputstream of the gameserver, never blocks.
+     * @param port The server port.
+     * @param sequence The sequence number of the line in the spool, or -1 if not spooled.
+     * @param line The line.
+     */
+    @Override
+    public void line(int port, long sequence, String line) {
+
+        final CopyOnWriteArrayList<Subscriber> list = subscribers.get(port);
+
+        if (list == null || list.isEmpty()) {
+            return;
+        }
+
+        final byte[] bytes = (port + " " + sequence + " " + line + "\n").getBytes(StandardCharsets.UTF_8);
+
+        for (Subscriber subscriber : list) {
+            enqueue(subscriber, bytes);
+        }
+    }
+
+    /**
+     * This method serves the clients until the server is closed.
+     */
+    @Override
+    public void run() {
+
+        try {
+
+            while (!closed) {
+
+                selector.select();
+                wakeup_pending.set(false);
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    final Subscriber subscriber = (Subscriber) key.attachment();
+
+                    if (key.isReadable()) {
+                        read(subscriber);
+                    }
+
+                    if (key.isValid() && key.isWritable()) {
+                        write(subscriber);
+                    }
+                }
+
+                Subscriber subscriber;
+                while ((subscriber = ready.poll()) != null) {
+                    subscriber.scheduled.set(false);
+                    write(subscriber);
+                }
+            }
+
+        } catch (IOException ex) {
+            Logger.getLogger(Server_ConsoleTailServer.class.getName()).log(Level.SEVERE, null, ex);
+
+        } finally {
+
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Subscriber) {
+                    disconnect((Subscriber) key.attachment());
+                }
+            }
+
+            closeQuietly();
+
+            if (dropped > 0) {
+                Notifier.print(Notifier.Level.WARN, "Console tail server dropped " + dropped + " slow clients!");
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method queues data to be sent to a client and schedules the write. A client
+     * overflowing it's queue is flagged to be dropped.
+     * @param subscriber The client.
+     * @param bytes The data.
+     */
+    private void enqueue(Subscriber subscriber, byte[] bytes) {
+
+        if (subscriber.closed || subscriber.overflowed) {
+            return;
+        }
+
+        if (!subscriber.queue.offer(bytes)) {
+            subscriber.overflowed = true;
+        }
+
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+
+            ready.add(subscriber);
+
+            if (Thread.currentThread() != thread && wakeup_pending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * This method accepts the waiting clients.
+     * @throws IOException
+     */
+    private void accept() throws IOException {
+
+        SocketChannel channel;
+        while ((channel = socket.accept()) != null) {
+
+            if (clients >= CLIENTS) {
+                channel.close();
+                continue;
+            }
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            final Subscriber subscriber = new Subscriber(channel);
+            subscriber.key = channel.register(selector, SelectionKey.OP_READ, subscriber);
+            clients++;
+        }
+    }
+
+    /**
+     * This method reads the requests of a client.
+     * @param subscriber The client.
+     */
+    private void read(Subscriber subscriber) {
+
+        final ByteBuffer buffer = subscriber.request;
+
+        try {
+
+            if (subscriber.channel.read(buffer) < 0) {
+                disconnect(subscriber);
+                return;
+            }
+
+        } catch (IOException ex) {
+            disconnect(subscriber);// Client disconnected
+            return;
+        }
+
+        int start = 0;
+
+        for (int i = 0; i < buffer.position(); i++) {
+
+            if (buffer.get(i) == '\n') {
+                handle(subscriber, new String(buffer.array(), start, i - start, StandardCharsets.UTF_8).trim());
+                start = i + 1;
+            }
+        }
+
+        if (subscriber.closed) {
+            return;
+        }
+
+        if (start == 0 && !buffer.hasRemaining()) {
+
+            try {
+                subscriber.channel.write(ByteBuffer.wrap("ERROR request too long\n".getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException ex) {
+                // Disconnected either way
+            }
+
+            disconnect(subscriber);
+            return;
+        }
+
+        buffer.flip();
+        buffer.position(start);
+        buffer.compact();
+    }
+
+    /**
+     * This method handles one request of a client.
+     * @param subscriber The client.
+     * @param request The request line.
+     */
+    private void handle(Subscriber subscriber, String request) {
+
+        if (request.isEmpty()) {
+            return;
+        }
+
+        final String[] args = request.split("\\s+");
+        final boolean subscribe = args[0].equalsIgnoreCase("subscribe");
+
+        if (!subscribe && !args[0].equalsIgnoreCase("unsubscribe")) {
+            enqueue(subscriber, "ERROR expected \"subscribe <port> [<port> ...]\" or \"unsubscribe <port> [<port> ...]\"\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        if (args.length < 2) {
+            enqueue(subscriber, "ERROR expected at least one port\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        final int[] ports = new int[args.length - 1];
+
+        for (int i = 1; i < args.length; i++) {
+
+            try {
+                ports[i - 1] = Integer.parseInt(args[i]);
+            } catch (NumberFormatException ex) {
+                ports[i - 1] = 0;
+            }
+
+            if (ports[i - 1] < 1 || ports[i - 1] > 65535) {
+                enqueue(subscriber, ("ERROR invalid port " + args[i] + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+
+        for (int port : ports) {
+
+            if (subscribe && subscriber.ports.add(port)) {
+                getSubscribers(port).add(subscriber);
+            } else if (!subscribe && subscriber.ports.remove(port)) {
+                getSubscribers(port).remove(subscriber);
+            }
+        }
+
+        enqueue(subscriber, OK);
+    }
+
+    /**
+     * This method writes the queued data of a client until the socket is full. The lines are
+     * copied into the output buffer of the client, thus each write is one system call. The
+     * client is dropped once it overflowed it's queue and the data before the overflow was written.
+     * @param subscriber The client.
+     */
+    private void write(Subscriber subscriber) {
+
+        if (subscriber.closed) {
+            return;
+        }
+
+        final ByteBuffer output = subscriber.output;
+
+        try {
+
+            while (true) {
+
+                while (output.hasRemaining()) {
+
+                    if (subscriber.current == null) {
+
+                        subscriber.current = subscriber.queue.poll();
+                        subscriber.offset = 0;
+
+                        if (subscriber.current == null) {
+                            break;
+                        }
+                    }
+
+                    final int length = Math.min(output.remaining(), subscriber.current.length - subscriber.offset);
+                    output.put(subscriber.current, subscriber.offset, length);
+                    subscriber.offset += length;
+
+                    if (subscriber.offset == subscriber.current.length) {
+                        subscriber.current = null;
+                    }
+                }
+
+                if (output.position() == 0) {
+                    break;
+                }
+
+                output.flip();
+                subscriber.channel.write(output);
+                final boolean full = output.hasRemaining();
+                output.compact();
+
+                if (full) {
+                    subscriber.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;// Socket full, written once writable
+                }
+            }
+
+            subscriber.key.interestOps(SelectionKey.OP_READ);
+
+            if (subscriber.overflowed) {
+                subscriber.channel.write(ByteBuffer.wrap("ERROR too slow\n".getBytes(StandardCharsets.UTF_8)));
+                dropped++;
+                disconnect(subscriber);
+            }
+
+        } catch (IOException ex) {
+            disconnect(subscriber);// Client disconnected
+        }
+    }
+
+    /**
+     * This method disconnects a client and removes it's subscriptions.
+     * @param subscriber The client.
+     */
+    private void disconnect(Subscriber subscriber) {
+
+        if (subscriber.closed) {
+            return;
+        }
+
+        subscriber.closed = true;
+        clients--;
+
+        for (int port : subscriber.ports) {
+            getSubscribers(port).remove(subscriber);
+        }
+
+        subscriber.key.cancel();
+
+        try {
+            subscriber.channel.close();
+        } catch (IOException ex) {
+            // Closing either way
+        }
+    }
+
+    /**
+     * This method returns the subscribers of a gameserver.
+     * @param port The server port.
+     * @return CopyOnWriteArrayList The subscribers.
+     */
+    private CopyOnWriteArrayList<Subscriber> getSubscribers(int port) {
+
+        CopyOnWriteArrayList<Subscriber> list = subscribers.get(port);
+
+        if (list == null) {
+            list = new CopyOnWriteArrayList<>();
+            final CopyOnWriteArrayList<Subscriber> previous = subscribers.putIfAbsent(port, list);
+
+            if (previous != null) {
+                list = previous;
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * This method closes the socket and selector.
+     */
+    private void closeQuietly() {
+
+        try {
+
+            if (socket != null) {
+                socket.close();
+            }
+
+            if (selector != null) {
+                selector.close();
+            }
+
+        } catch (IOException ex) {
+            // Closing either way
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Subscriber class holds the connection of one client. The queue and flags are shared
+     * with the reading threads of the gameservers, the rest is only used by the serving thread.
+     */
+    private static final class Subscriber {
+
+        private final SocketChannel channel;
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private volatile boolean overflowed = false;
+        private volatile boolean closed = false;
+
+        private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST);
+        private final ByteBuffer output = ByteBuffer.allocate(OUTPUT);
+        private final Set<Integer> ports = new HashSet<>();
+
+        private SelectionKey key = null;
+        private byte[] current = null;// Line being copied to the output
+        private int offset = 0;
+
+        private Subscriber(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
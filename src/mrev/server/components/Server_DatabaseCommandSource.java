@@ -0,0 +1,197 @@
+package mrev.server.components;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mrev.server.database.DatabaseConnection;
+import mrev.server.database.DatabaseHandler;
+
+/**
+ * The Server_DatabaseCommandSource class reads the server commands from the gameservers_exec_commands
+ * table. Each poll claims a batch of unclaimed commands by stamping them with a claim number, the
+ * claimed commands are only selected if any were claimed. A finished command is acknowledged by
+ * deleting it by it's id. While the table stays empty the poll interval backs off up to a maximum,
+ * thus an idle supervisor barely loads the database.
+ *
+ * The claim numbers restart each run, thus the commands claimed but not acknowledged by an
+ * earlier run, such as when the table was not cleared on startup, are released by the first
+ * poll. They would be selected by a claim of this run otherwise, and are claimed again instead.
+ *
+ * The table requires the columns "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY" and
+ * "claimed INT NOT NULL DEFAULT 0", preferably with an index on claimed.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 14:50:22
+ * @version 0.0.1
+ */
+public class Server_DatabaseCommandSource implements Server_CommandSource {
+    
+    // -------------------------------------------------------------------------
+    
+    private static final long MAX_IDLE_INTERVAL = Long.getLong("mrev.commands.maxIdlePoll", 1000) * 1000000L;
+    private static final long MIN_IDLE_INTERVAL = 100 * 1000000L;// 100 Milliseconds
+    
+    private static final int CLAIM_BATCH = Integer.getInteger("mrev.commands.batch", 100);
+    
+    private int claim = 0;
+    private boolean released = false;// Claims of earlier runs released
+    private volatile boolean backlogged = false;
+    
+    private long idle_interval = 0;
+    private long next_poll = System.nanoTime();
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * This method verifies if the last poll claimed a full batch, thus more commands are waiting.
+     * @return boolean If more commands are waiting to be claimed.
+     */
+    public boolean isBacklogged() {
+        return backlogged;
+    }
+    
+    @Override
+    public boolean isUsingDatabase() {
+        return true;
+    }
+    
+    /**
+     * This method claims the new commands of the gameservers_exec_commands table and adds them to the list.
+     * @param db The database reference.
+     * @param commands The list receiving the commands.
+     */
+    @Override
+    public void poll(DatabaseHandler db, List<Server_Command> commands) {
+        
+        final long now = System.nanoTime();
+        
+        if (now - next_poll < 0) {
+            return;// Backing off, table was empty
+        }
+        
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
+            
+            if (!released) {
+                
+                final PreparedStatement ps0 = conn.prepareStatement("UPDATE gameservers_exec_commands SET claimed = 0 WHERE claimed <> 0");
+                ps0.executeUpdate();
+                ps0.close();
+                
+                released = true;
+            }
+            
+            final int number = ++claim;
+            
+            final PreparedStatement ps1 = conn.prepareStatement("UPDATE gameservers_exec_commands SET claimed = ? WHERE claimed = 0 ORDER BY id LIMIT ?");
+            ps1.setInt(1, number);
+            ps1.setInt(2, CLAIM_BATCH);
+            
+            final int claimed = ps1.executeUpdate();
+            ps1.close();
+            
+            backlogged = claimed >= CLAIM_BATCH;// More commands waiting to be claimed
+            
+            if (claimed == 0) {
+                idle_interval = Math.min(MAX_IDLE_INTERVAL, Math.max(MIN_IDLE_INTERVAL, idle_interval * 2));
+                next_poll = now + idle_interval;
+                return;
+            }
+            
+            idle_interval = 0;
+            next_poll = now;
+            
+            final PreparedStatement ps2 = conn.prepareStatement("SELECT id, server_port, command, status FROM gameservers_exec_commands WHERE claimed = ? ORDER BY id");
+            ps2.setInt(1, number);
+            
+            final ResultSet rs2 = ps2.executeQuery();
+            
+            while (rs2.next()) {
+                commands.add(new Server_Command(this, rs2.getLong("id"), rs2.getInt("server_port"), rs2.getString("command"), rs2.getInt("status")));
+            }
+            
+            rs2.close();
+            ps2.close();
+            
+        } catch (SQLException ex) {
+            Logger.getLogger(Server_DatabaseCommandSource.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * This method updates a server command.
+     * @param db The database reference.
+     * @param command The server command.
+     * @param status The server command status.
+     * @return If statement was successfully executed.
+     */
+    @Override
+    public boolean updateStatus(DatabaseHandler db, Server_Command command, int status) {
+        
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
+            
+            final PreparedStatement ps = conn.prepareStatement("UPDATE gameservers_exec_commands SET status = ? WHERE id = ?");
+            ps.setInt(1, status);
+            ps.setLong(2, command.getId());
+            
+            ps.executeUpdate();
+            ps.close();
+            
+        } catch (SQLException ex) {
+            Logger.getLogger(Server_DatabaseCommandSource.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+        
+        command.setStatus(status);
+        return true;
+    }
+    
+    /**
+     * This method removes a finished server command by it's id.
+     * @param db The database reference.
+     * @param command The server command to be removed.
+     * @return If statement was successfully executed.
+     */
+    @Override
+    public boolean acknowledge(DatabaseHandler db, Server_Command command) {
+        
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
+            
+            final PreparedStatement ps = conn.prepareStatement("DELETE FROM gameservers_exec_commands WHERE id = ?");
+            ps.setLong(1, command.getId());
+            
+            ps.executeUpdate();
+            ps.close();
+            
+        } catch (SQLException ex) {
+            Logger.getLogger(Server_DatabaseCommandSource.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * This method clear the server commands
+     * @param db The database reference.
+     * @return If statement was successfully executed
+     */
+    public boolean clear(DatabaseHandler db) {
+        
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
+            
+            final PreparedStatement ps = conn.prepareStatement("TRUNCATE TABLE gameservers_exec_commands");
+            
+            ps.executeUpdate();
+            ps.close();
+            
+        } catch (SQLException ex) {
+            Logger.getLogger(Server_DatabaseCommandSource.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+        
+        return true;
+    }
+}
@@ -5,11 +5,16 @@ import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import mrev.Notifier;
 import mrev.server.ServerListener;
+import mrev.server.database.DatabaseConnection;
 import mrev.server.database.DatabaseHandler;
+import mrev.server.gameserver.Gameserver;
+import mrev.server.gameserver.components.Gameserver_Spool;
+import mrev.server.gameserver.components.Gameserver_State;
 import org.apache.commons.io.FileUtils;
 
 /**
@@ -20,45 +25,101 @@ import org.apache.commons.io.FileUtils;
  */
 public class Server_Executor {
 
+    // -------------------------------------------------------------------------
+    
+    private final Server_DatabaseCommandSource database_source = new Server_DatabaseCommandSource();
+    private final Server_LocalCommandSource local_source = new Server_LocalCommandSource();
+    private final Server_CommandEndpoint endpoint = new Server_CommandEndpoint(local_source);
+    
+    private final Server_CommandSource[] sources = { local_source, database_source };
+    private final ArrayList<Server_Command> commands = new ArrayList<>();
+    private final Server_CommandQueue command_queue = new Server_CommandQueue(this);
+    private final Server_WipeEngine wipe_engine = new Server_WipeEngine("servers");
+    private final Server_SnapshotStore snapshot_store = new Server_SnapshotStore("servers", wipe_engine);
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * This method starts the command workers, opens the local command endpoint and resumes
+     * unfinished wipes.
+     */
+    public void open() {
+        command_queue.start();
+        endpoint.open();
+        wipe_engine.open();
+    }
+    
+    /**
+     * This method closes the local command endpoint and waits for running commands.
+     * Unfinished wipes are resumed on next open.
+     */
+    public void close() {
+        endpoint.close();
+        command_queue.shutdown();
+        wipe_engine.close();
+    }
+    
+    /**
+     * This method returns the source of commands submitted from within the application.
+     * @return Server_LocalCommandSource The local command source.
+     */
+    public Server_LocalCommandSource getLocalCommandSource() {
+        return local_source;
+    }
+    
     /**
-     * This method execute all server commands.
+     * This method verifies if there are commands waiting to be polled, thus the next poll shall be run at once.
+     * @return boolean If there are commands waiting to be polled.
+     */
+    public boolean hasPendingCommands() {
+        return local_source.isPending() || database_source.isBacklogged();
+    }
+    
+    /**
+     * This method verifies if any polled commands are waiting to be executed or finished.
+     * @return boolean If any polled commands are waiting.
+     */
+    public boolean isBusy() {
+        return command_queue.isPending();
+    }
+    
+    /**
+     * This method claims the new server commands of all command sources and schedules the
+     * waiting commands, which are executed in parallel for different ports.
      * @param db The database reference.
+     * @param useDb If the database is available.
      */
-    public void executeCommands(DatabaseHandler db) {
+    public void executeCommands(DatabaseHandler db, boolean useDb) {
         
-        try {
-            
-            final PreparedStatement ps = db.getMainConnection().prepareStatement("SELECT server_port, command, status FROM gameservers_exec_commands");
-            final ResultSet rs = ps.executeQuery();
+        for (Server_CommandSource source : sources) {
             
-            while (rs.next()) {
-                
-                final int port = rs.getInt("server_port");
-                final String command = rs.getString("command");
-                final int status = rs.getInt("status");
-                
-                Notifier.print("Executing command \"" + command + "\" with status \"" + status + "\" on server with port: " + port);
-                
-                if (executeCommand(db, port, command, status)) {
-                    removeCommand(db, port, command);
-                }
-                
+            if (source.isUsingDatabase() && !useDb) {
+                continue;
             }
             
-        } catch (SQLException ex) {
-            Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, null, ex);
+            source.poll(db, commands);
+        }
+        
+        if (!commands.isEmpty()) {
+            command_queue.add(commands);
+            commands.clear();
         }
+        
+        command_queue.schedule(db);
     }
     
     /**
      * This method execute a server command.
      * @param db The database reference.
-     * @param port The server port.
-     * @param command The server command to be executed.
-     * @param status The server command status.
-     * @return If command shall be removed from database, when the whole execution finished.
+     * @param cmd The server command to be executed.
+     * @return If command shall be removed from it's source, when the whole execution finished.
      */
-    public boolean executeCommand(DatabaseHandler db, int port, String command, int status) {
+    public boolean executeCommand(DatabaseHandler db, Server_Command cmd) {
+        
+        final int port = cmd.getPort();
+        final String command = cmd.getCommand();
+        
+        Notifier.print("Executing command \"" + command + "\" with status \"" + cmd.getStatus() + "\" on server with port: " + port);
         
         switch (command) {
             
@@ -72,7 +133,7 @@ public class Server_Executor {
             }
             case "restart":
             {
-                return executeCommand_Restart(db, port, status);
+                return executeCommand_Restart(db, cmd);
             }
             case "wipe:total":
             {
@@ -90,10 +151,31 @@ public class Server_Executor {
             {
                 return executeCommand_Wipe(db, port, "LOGS");
             }
+            case "snapshot":
+            {
+                return executeCommand_Snapshot(port);
+            }
+            case "restore":
+            {
+                return executeCommand_Restore(port, null);
+            }
+            case "snapshot:prune":
+            {
+                return executeCommand_Prune(port, null);
+            }
             default:
             {
-                if (ServerListener.server_processes.isExistingGameserver(port)) {
-                    ServerListener.server_processes.getGameserver(port).getIoStream().send(command);
+                if (command.startsWith("restore:")) {
+                    return executeCommand_Restore(port, command.substring("restore:".length()));
+                }
+                
+                if (command.startsWith("snapshot:prune:")) {
+                    return executeCommand_Prune(port, command.substring("snapshot:prune:".length()));
+                }
+                
+                final Gameserver gameserver = ServerListener.server_processes.getGameserver(port);
+                if (gameserver != null) {
+                    gameserver.getIoStream().send(command);
                 }
                 return true;// Remove command; command sent to server
             }
@@ -115,8 +197,12 @@ public class Server_Executor {
             return false;// Wait to execute command, server stopping
         }
         
+        if (ServerListener.server_processes.getState(port) != null) {
+            return true;// Remove command, server already queued
+        }
+        
         if (ServerListener.server_start.startServer(db, port)) {
-            Notifier.print("Started server on port: " + port);
+            Notifier.print("Queued server for launch on port: " + port);
         } else {
             Notifier.print("Failed to start server on port: " + port);
         }
@@ -131,33 +217,47 @@ public class Server_Executor {
      */
     private boolean executeCommand_Stop(DatabaseHandler db, int port) {
         
-        if (ServerListener.server_processes.isExistingGameserver(port)) {
-            ServerListener.server_processes.getGameserver(port).sendStop(port);
+        if (ServerListener.server_start.cancelLaunch(db, port)) {
+            Notifier.print("Cancelled queued launch of server on port: " + port);
+            return true;// Remove command, server never launched
+        }
+        
+        if (ServerListener.server_processes.getState(port) == Gameserver_State.STARTING &&
+            !ServerListener.server_processes.isExistingGameserver(port)) {
+            return false;// Wait to execute command, server being launched
         }
         
+        ServerListener.server_shutdown.stop(port);
+        
         return true;// Remove command, server already stopped
     }
     
     /**
      * This method execute the restart command.
-     * @param port The server port.
-     * @param status The server command status.
+     * @param cmd The server command.
      * @return If command shall be removed from database, when the whole execution finished.
      */
-    private boolean executeCommand_Restart(DatabaseHandler db, int port, int status) {
+    private boolean executeCommand_Restart(DatabaseHandler db, Server_Command cmd) {
+        
+        final int port = cmd.getPort();
+        final int status = cmd.getStatus();
         
         final Server_Processes serverlistener = ServerListener.server_processes;
         final boolean isExistingGameserver = serverlistener.isExistingGameserver(port);
         
         if (isExistingGameserver && status == 0) {
-            serverlistener.getGameserver(port).sendStop(port);
-            updateCommand(db, 1, port, "restart");
+            ServerListener.server_shutdown.stop(port);
+            cmd.getSource().updateStatus(db, cmd, 1);
             
         } else if (!isExistingGameserver &&
                    !serverlistener.isExistingStoppedGameserver(port)) {
             
+            if (serverlistener.getState(port) != null) {
+                return true;// Remove command, server already queued
+            }
+            
             if (ServerListener.server_start.startServer(db, port)) {
-                Notifier.print("Started server on port: " + port);
+                Notifier.print("Queued server for launch on port: " + port);
             } else {
                 Notifier.print("Failed to start server on port: " + port);
             }
@@ -184,26 +284,31 @@ public class Server_Executor {
             return false;// Wait to execute command, server stopping
         }
         
+        if (ServerListener.server_processes.getState(port) != null) {
+            Notifier.print("Server on port " + port + " must be stopped to be wiped!");
+            return true;// Remove command, server queued or starting -> can't wipe
+        }
+        
         switch (type) {
             
             case "TOTAL":
             {
-                wipe("servers/server_" + port);
+                wipe("servers/server_" + port, Gameserver_Spool.DIRECTORY);// The lines not yet shipped are kept
                 break;
             }
             case "WORLD":
             {
-                wipe("servers/server_" + port + "/" + getServerLevelName(db, port));
+                wipe("servers/server_" + port + "/" + getServerLevelName(db, port), null);
                 break;
             }
             case "PLUGINS":
             {
-                wipe("servers/server_" + port + "/plugins");
+                wipe("servers/server_" + port + "/plugins", null);
                 break;
             }
             case "LOGS":
             {
-                wipe("servers/server_" + port + "/logs");
+                wipe("servers/server_" + port + "/logs", null);
                 break;
             }
             default:
@@ -216,104 +321,133 @@ public class Server_Executor {
     }
     
     /**
-     * This method updates a server command.
-     * @param db The database reference.
-     * @param status The server command status.
+     * This method execute the snapshot command.
      * @param port The server port.
-     * @param command The server command to be removed.
-     * @return If statement was successfully executed.
+     * @return If command shall be removed from database, when the whole execution finished.
      */
-    private boolean updateCommand(DatabaseHandler db, int status, int port, String command) {
+    private boolean executeCommand_Snapshot(int port) {
+        
+        if (ServerListener.server_processes.isExistingStoppedGameserver(port)) {
+            return false;// Wait to execute command, server stopping
+        }
+        
+        if (ServerListener.server_processes.getState(port) != null) {
+            Notifier.print("Server on port " + port + " must be stopped to take a snapshot!");
+            return true;// Remove command, server online -> can't snapshot
+        }
         
         try {
             
-            final PreparedStatement ps = db.getMainConnection().prepareStatement("UPDATE gameservers_exec_commands SET status = ? WHERE server_port = ? AND command = ?");
-            ps.setInt(1, status);
-            ps.setInt(2, port);
-            ps.setString(3, command);
+            snapshot_store.snapshot(port);
             
-            ps.executeUpdate();
-            ps.close();
-            
-        } catch (SQLException ex) {
-            Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, null, ex);
-            return false;
+        } catch (IOException ex) {
+            Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, "Failed to take a snapshot of server on port: " + port, ex);
         }
         
-        return true;
+        return true;// Remove command, snapshot taken
     }
     
     /**
-     * This method removes a server command.
-     * @param db The database reference.
+     * This method execute the restore command.
      * @param port The server port.
-     * @param command The server command to be removed.
-     * @return If statement was successfully executed.
+     * @param name The snapshot name, or null for the latest snapshot.
+     * @return If command shall be removed from database, when the whole execution finished.
      */
-    private boolean removeCommand(DatabaseHandler db, int port, String command) {
+    private boolean executeCommand_Restore(int port, String name) {
+        
+        if (ServerListener.server_processes.isExistingStoppedGameserver(port)) {
+            return false;// Wait to execute command, server stopping
+        }
+        
+        if (ServerListener.server_processes.getState(port) != null) {
+            Notifier.print("Server on port " + port + " must be stopped to restore a snapshot!");
+            return true;// Remove command, server online -> can't restore
+        }
         
         try {
             
-            final PreparedStatement ps = db.getMainConnection().prepareStatement("DELETE FROM gameservers_exec_commands WHERE server_port = ? AND command = ?");
-            ps.setInt(1, port);
-            ps.setString(2, command);
-            
-            ps.executeUpdate();
-            ps.close();
+            snapshot_store.restore(port, name);
             
-        } catch (SQLException ex) {
-            Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, null, ex);
-            return false;
+        } catch (IOException ex) {
+            Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, "Failed to restore a snapshot of server on port: " + port, ex);
         }
         
-        return true;
+        return true;// Remove command, snapshot restored
     }
     
     /**
-     * This method clear the server commands
-     * @param db The database reference.
-     * @return If statement was successfully executed
+     * This method execute the prune command, the server may be running.
+     * @param port The server port.
+     * @param keep The number of latest snapshots kept, or null to only collect unreferenced chunks.
+     * @return If command shall be removed from database, when the whole execution finished.
      */
-    public boolean clearCommands(DatabaseHandler db) {
+    private boolean executeCommand_Prune(int port, String keep) {
+        
+        final int count;
         
         try {
             
-            final PreparedStatement ps = db.getMainConnection().prepareStatement("TRUNCATE TABLE gameservers_exec_commands");
+            count = keep == null ? 0 : Integer.parseInt(keep);
             
-            ps.executeUpdate();
-            ps.close();
+        } catch (NumberFormatException ex) {
+            Notifier.print("Invalid number of snapshots to keep: " + keep);
+            return true;// Remove command, invalid
+        }
+        
+        if (count < 0) {
+            Notifier.print("Invalid number of snapshots to keep: " + keep);
+            return true;// Remove command, invalid
+        }
+        
+        try {
             
-        } catch (SQLException ex) {
-            Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, null, ex);
-            return false;
+            snapshot_store.prune(port, count);
+            
+        } catch (IOException ex) {
+            Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, "Failed to prune snapshots of server on port: " + port, ex);
         }
         
-        return true;
+        return true;// Remove command, snapshots pruned
     }
     
     /**
-     * This method handle wipe of each directory
+     * This method clear the server commands of the database
+     * @param db The database reference.
+     * @return If statement was successfully executed
+     */
+    public boolean clearCommands(DatabaseHandler db) {
+        return database_source.clear(db);
+    }
+    
+    /**
+     * This method handle wipe of each directory. The directory is renamed at once and deleted
+     * by the wipe engine in the background, only if it fails to be renamed it's deleted here
      * @param directory The directory
+     * @param keep The name of the entry of the directory to be kept, or null to wipe the directory itself
      */
-    private void wipe(String directory) {
+    private void wipe(String directory, String keep) {
         
         final File dir = new File(directory);
         
-        try {
-            
-            FileUtils.deleteDirectory(dir);
+        if (keep == null ? wipe_engine.wipe(dir) : wipe_engine.wipe(dir, keep)) {
+            return;
+        }
+        
+        final File[] targets = keep == null ? new File[] { dir } : dir.listFiles();
+        
+        for (File target : targets == null ? new File[0] : targets) {
             
-        } catch (IOException ex) {
+            if (target.getName().equals(keep)) {
+                continue;
+            }
             
             try {
                 
-                FileUtils.forceDelete(dir);
+                FileUtils.forceDelete(target);
                 
-            } catch (IOException ex1) {
-                Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, null, ex1);
+            } catch (IOException ex) {
+                Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, null, ex);
             }
-            
-            Logger.getLogger(Server_Executor.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
     
@@ -324,9 +458,9 @@ public class Server_Executor {
      */
     private String getServerLevelName(DatabaseHandler db, int port) {
         
-        try {
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
             
-            final PreparedStatement ps = db.getMainConnection().prepareStatement("SELECT level_name FROM gameservers_settings WHERE server_port = ?");
+            final PreparedStatement ps = conn.prepareStatement("SELECT level_name FROM gameservers_settings WHERE server_port = ?");
             ps.setInt(1, port);
             
             final ResultSet rs = ps.executeQuery();
@@ -0,0 +1,272 @@
+package mrev.server.components;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import mrev.Notifier;
+
+/**
+ * The Server_JarStore class deploys the gameserver JARs to the gameserver directories. Each
+ * JAR of servers/jars is stored once by the SHA-256 of it's content in servers/jars/.store,
+ * and hard-linked into the gameserver directories. When the file system does not support hard
+ * links, the stored JAR is copied and the copy verified by it's checksum. A deployed JAR whose
+ * content did not change is left as it is, thus a restart normally writes nothing.
+ *
+ * The checksums are cached by the path, size and modification time of the file, thus a
+ * JAR is only read again after it was changed.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 17:31:02
+ * @version 0.0.1
+ */
+public class Server_JarStore {
+
+    // -------------------------------------------------------------------------
+
+    private final File jars;
+    private final File store;
+
+    private final ConcurrentHashMap<String, Checksum> checksums = new ConcurrentHashMap<>();
+
+    private volatile boolean links_supported = true;
+    private volatile boolean link_failure_reported = false;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the JAR store.
+     * @param directory The directory of the gameserver JARs.
+     */
+    public Server_JarStore(String directory) {
+        this.jars = new File(directory).getAbsoluteFile();
+        this.store = new File(jars, ".store");
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method deploys a gameserver JAR to a gameserver directory.
+     * @param jar The gameserver JAR, name and file extension only.
+     * @param destination The JAR file of the gameserver.
+     * @throws IOException If the JAR is invalid, missing or failed to be deployed.
+     */
+    public void deploy(String jar, File destination) throws IOException {
+
+        final File source = getSource(jar);
+
+        if (!source.isFile()) {
+
+            if (destination.isFile()) {
+                Notifier.print("Missing gameserver JAR " + jar + ", keeping the deployed one: " + destination.getPath());
+                return;
+            }
+
+            throw new FileNotFoundException("Missing gameserver JAR: " + source.getPath());
+        }
+
+        final String checksum = getChecksum(source);
+        final File stored = store(source, checksum);
+
+        if (destination.isFile()) {
+
+            if (Files.isSameFile(destination.toPath(), stored.toPath())) {
+                return;// Already linked
+            }
+
+            if (destination.length() == stored.length() && checksum.equals(getChecksum(destination))) {
+                return;// Same content
+            }
+        }
+
+        final Path temporary = new File(destination.getParentFile(), destination.getName() + ".tmp").toPath();
+
+        Files.deleteIfExists(temporary);
+
+        if (!link(stored.toPath(), temporary)) {
+
+            Files.copy(stored.toPath(), temporary);
+
+            if (!checksum.equals(digest(temporary.toFile()))) {
+                Files.deleteIfExists(temporary);
+                throw new IOException("Checksum mismatch copying " + jar + " to " + destination.getPath());
+            }
+        }
+
+        Files.move(temporary, destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checksums.remove(destination.getAbsolutePath());
+    }
+
+    /**
+     * This method resolves a gameserver JAR name, rejecting names outside of the JAR directory.
+     * @param jar The gameserver JAR, name and file extension only.
+     * @return File The gameserver JAR.
+     * @throws IOException If the name is invalid.
+     */
+    private File getSource(String jar) throws IOException {
+
+        if (jar == null || !jar.endsWith(".jar") || jar.startsWith(".") ||
+            jar.indexOf('/') >= 0 || jar.indexOf('\\') >= 0) {
+            throw new IOException("Invalid gameserver JAR name: " + jar);
+        }
+
+        final File source = new File(jars, jar);
+
+        if (!jars.getCanonicalFile().equals(source.getCanonicalFile().getParentFile())) {
+            throw new IOException("Invalid gameserver JAR name: " + jar);
+        }
+
+        return source;
+    }
+
+    /**
+     * This method stores the content of a JAR by it's checksum, unless already stored.
+     * @param source The gameserver JAR.
+     * @param checksum The checksum of the JAR.
+     * @return File The stored JAR.
+     * @throws IOException
+     */
+    private synchronized File store(File source, String checksum) throws IOException {
+
+        final File stored = new File(store, checksum + ".jar");
+
+        if (stored.isFile() && checksum.equals(getChecksum(stored))) {
+            return stored;
+        }
+
+        if (!store.isDirectory() && !store.mkdirs()) {
+            throw new IOException("Failed to create the JAR store: " + store.getPath());
+        }
+
+        final File temporary = new File(store, checksum + ".tmp");
+
+        Files.copy(source.toPath(), temporary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        if (!checksum.equals(digest(temporary))) {// Changed while copied
+            Files.deleteIfExists(temporary.toPath());
+            throw new IOException("Gameserver JAR changed while stored: " + source.getPath());
+        }
+
+        Files.move(temporary.toPath(), stored.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checksums.remove(stored.getAbsolutePath());
+
+        Notifier.print("Stored gameserver JAR " + source.getName() + " as " + checksum);
+
+        return stored;
+    }
+
+    /**
+     * This method creates a hard link, unless the file system is known not to support them.
+     * @param target The existing file.
+     * @param link The link to be created.
+     * @return boolean If the link was created.
+     */
+    private boolean link(Path target, Path link) {
+
+        if (!links_supported) {
+            return false;
+        }
+
+        try {
+
+            Files.createLink(link, target);
+            return true;
+
+        } catch (UnsupportedOperationException ex) {
+            links_supported = false;
+            Notifier.print("Hard links are not supported, copying gameserver JARs instead!");
+
+        } catch (IOException ex) {// Such as a link across file systems, copied instead
+            if (!link_failure_reported) {
+                link_failure_reported = true;
+                Notifier.print("Failed to hard link gameserver JAR, copying instead: " + ex.getMessage());
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method returns the checksum of a file, computed again only when the file changed.
+     * @param file The file.
+     * @return String The SHA-256 of the file content, hex encoded.
+     * @throws IOException
+     */
+    private String getChecksum(File file) throws IOException {
+
+        final String key = file.getAbsolutePath();
+        final long length = file.length();
+        final long modified = file.lastModified();
+
+        final Checksum cached = checksums.get(key);
+
+        if (cached != null && cached.length == length && cached.modified == modified) {
+            return cached.checksum;
+        }
+
+        final String checksum = digest(file);
+        checksums.put(key, new Checksum(length, modified, checksum));
+
+        return checksum;
+    }
+
+    /**
+     * This method computes the checksum of a file.
+     * @param file The file.
+     * @return String The SHA-256 of the file content, hex encoded.
+     * @throws IOException
+     */
+    private static String digest(File file) throws IOException {
+
+        final MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        try (InputStream input = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+
+            final byte[] buffer = new byte[64 * 1024];
+
+            while (input.read(buffer) != -1) {
+                // Digested while read
+            }
+        }
+
+        final StringBuilder hex = new StringBuilder(64);
+
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Checksum class holds the checksum of a file with the size and modification time
+     * it was computed for.
+     */
+    private static final class Checksum {
+
+        private final long length;
+        private final long modified;
+        private final String checksum;
+
+        private Checksum(long length, long modified, String checksum) {
+            this.length = length;
+            this.modified = modified;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package mrev.server.components;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mrev.Notifier;
+import mrev.server.ServerListener;
+import mrev.server.database.DatabaseHandler;
+import mrev.server.gameserver.Gameserver;
+import mrev.server.gameserver.components.Gameserver_State;
+
+/**
+ * The Server_LaunchScheduler class staggers the launch of gameserver processes. Prepared
+ * gameservers are queued, flagged as QUEUED, and admitted in order when the host can take
+ * another one:
+ *
+ * - the sum of the configured memory of the launched gameservers stays within the memory
+ *   budget (-Dmrev.launch.memoryBudget, in megabytes, by default the physical memory less
+ *   1024 megabytes, 0 for no budget),
+ * - less than -Dmrev.launch.maxBooting gameservers are still loading (default half the
+ *   number of processors) and
+ * - the system load average is below -Dmrev.launch.maxLoad (default the number of processors).
+ *
+ * The load average is only considered while another gameserver is loading and the memory
+ * budget only while another gameserver is launched, thus a queued gameserver is never held
+ * back forever. A gameserver is loading until it writes the "Done (" line to it's outputstream,
+ * or for at most -Dmrev.launch.bootTimeout milliseconds (default 180 seconds).
+ *
+ * The launch state is written to the state column of gameservers_status, which holds one of
+ * 'queued', 'starting', 'running' or 'stopped'.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 16:58:26
+ * @version 0.0.1
+ */
+public class Server_LaunchScheduler {
+
+    // -------------------------------------------------------------------------
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    private static final long MEMORY_BUDGET = Long.getLong("mrev.launch.memoryBudget", getDefaultMemoryBudget());
+    private static final int MAX_BOOTING = Integer.getInteger("mrev.launch.maxBooting", Math.max(1, PROCESSORS / 2));
+    private static final double MAX_LOAD = Double.parseDouble(System.getProperty("mrev.launch.maxLoad", "" + PROCESSORS));
+    private static final long BOOT_TIMEOUT = Long.getLong("mrev.launch.bootTimeout", 180 * 1000);
+
+    private final Server_Start server_start;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    private final ArrayDeque<Server_Settings> queued = new ArrayDeque<>();
+    private final Map<Integer, Launch> launched = new LinkedHashMap<>();
+    private long committed_memory = 0;
+
+    private String held_back = null;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the launch scheduler.
+     * @param server_start The server start, updating the gameserver status.
+     */
+    public Server_LaunchScheduler(Server_Start server_start) {
+        this.server_start = server_start;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method queues a reserved and prepared gameserver for launch, flagging it as QUEUED.
+     * @param settings The server settings.
+     */
+    public synchronized void enqueue(Server_Settings settings) {
+
+        ServerListener.server_processes.setState(settings.getPort(), Gameserver_State.STARTING, Gameserver_State.QUEUED);
+        queued.add(settings);
+    }
+
+    /**
+     * This method cancels a queued launch, releasing the reservation of the port.
+     * @param port The server port.
+     * @return boolean If a queued launch was cancelled.
+     */
+    public synchronized boolean cancel(int port) {
+
+        final Iterator<Server_Settings> it = queued.iterator();
+
+        while (it.hasNext()) {
+
+            if (it.next().getPort() == port) {
+                it.remove();
+                ServerListener.server_processes.removeGameserver(port);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method cancels all queued launches, releasing the reservations of their ports.
+     * @return List The ports of the cancelled launches.
+     */
+    public synchronized List<Integer> cancelAll() {
+
+        final List<Integer> ports = new ArrayList<>(queued.size());
+
+        for (Server_Settings settings : queued) {
+            ServerListener.server_processes.removeGameserver(settings.getPort());
+            ports.add(settings.getPort());
+        }
+
+        queued.clear();
+
+        return ports;
+    }
+
+    /**
+     * This method verifies if any launches are queued.
+     * @return boolean If any launches are queued.
+     */
+    public synchronized boolean isPending() {
+        return !queued.isEmpty();
+    }
+
+    /**
+     * This method flags the loaded gameservers as RUNNING, releases the memory of removed
+     * gameservers and launches the queued gameservers admitted by the host resources.
+     * Called by one thread at a time, the server listener.
+     * @param db The database reference.
+     */
+    public void schedule(DatabaseHandler db) {
+
+        final List<Integer> running = new ArrayList<>();
+        final List<Server_Settings> admitted = new ArrayList<>();
+
+        synchronized (this) {
+
+            final long now = System.currentTimeMillis();
+            int booting = 0;
+
+            final Iterator<Launch> it = launched.values().iterator();
+            while (it.hasNext()) {
+
+                final Launch launch = it.next();
+                final int port = launch.settings.getPort();
+
+                if (launch.gameserver == null) {// Being launched
+                    booting++;
+                    continue;
+                }
+
+                if (ServerListener.server_processes.getGameserver(port) != launch.gameserver) {// Removed
+                    committed_memory -= launch.settings.getMemory();
+                    it.remove();
+                    continue;
+                }
+
+                if (launch.ready) {
+                    continue;
+                }
+
+                if (launch.gameserver.getLogger().isReady()) {
+                    Notifier.print("Server on port " + port + " is done loading after " + ((now - launch.timestamp) / 1000) + " seconds!");
+                    launch.ready = true;
+
+                } else if (now - launch.timestamp > BOOT_TIMEOUT) {
+                    Notifier.print("Server on port " + port + " did not report to be done loading within " + (BOOT_TIMEOUT / 1000) + " seconds!");
+                    launch.ready = true;
+
+                } else if (ServerListener.server_processes.getState(port) == Gameserver_State.STARTING) {
+                    booting++;
+                    continue;
+
+                } else {// Stopping while loading
+                    launch.ready = true;
+                    continue;
+                }
+
+                if (ServerListener.server_processes.setState(port, Gameserver_State.STARTING, Gameserver_State.RUNNING)) {
+                    running.add(port);
+                }
+            }
+
+            final double load = queued.isEmpty() ? 0 : os.getSystemLoadAverage();
+
+            while (!queued.isEmpty()) {
+
+                final Server_Settings settings = queued.peek();
+                final String reason;
+
+                if (booting >= MAX_BOOTING) {
+                    reason = booting + " servers loading";
+
+                } else if (booting > 0 && load >= MAX_LOAD) {
+                    reason = "load average " + load;
+
+                } else if (MEMORY_BUDGET > 0 && committed_memory > 0 && committed_memory + settings.getMemory() > MEMORY_BUDGET) {
+                    reason = "memory budget, " + committed_memory + " of " + MEMORY_BUDGET + " MB committed";
+
+                } else {
+                    reason = null;
+                }
+
+                if (reason != null) {
+
+                    if (!reason.equals(held_back)) {
+                        Notifier.print("Holding back " + queued.size() + " queued servers: " + reason);
+                    }
+
+                    held_back = reason;
+                    break;
+                }
+
+                queued.poll();
+
+                committed_memory += settings.getMemory();
+                booting++;
+
+                launched.put(settings.getPort(), new Launch(settings));
+                admitted.add(settings);
+
+                ServerListener.server_processes.setState(settings.getPort(), Gameserver_State.QUEUED, Gameserver_State.STARTING);
+            }
+
+            if (queued.isEmpty()) {
+                held_back = null;
+            }
+        }
+
+        final List<Integer> starting = new ArrayList<>(admitted.size());
+        final List<Integer> failed = new ArrayList<>();
+
+        for (Server_Settings settings : admitted) {
+            starting.add(settings.getPort());
+        }
+
+        // Written before the gameservers are registered, thus never after the status of a gameserver which already exited
+        server_start.updateServerStatusAndOnCoreRestart(db, true, false, starting);
+
+        for (Server_Settings settings : admitted) {
+            if (!launch(settings)) {
+                failed.add(settings.getPort());
+            }
+        }
+
+        server_start.updateServerStatusAndOnCoreRestart(db, false, false, failed);
+        server_start.updateServerState(db, Gameserver_State.RUNNING, running);
+    }
+
+    /**
+     * This method launches the process of an admitted gameserver and registers it.
+     * @param settings The server settings.
+     * @return boolean If the gameserver was launched.
+     */
+    private boolean launch(Server_Settings settings) {
+
+        final int port = settings.getPort();
+
+        try {
+
+            final Gameserver gameserver = new Gameserver(port, settings.getJar(), settings.getMemory());
+
+            ServerListener.server_processes.addGameserver(port, gameserver);
+
+            synchronized (this) {
+                launched.get(port).started(gameserver);
+            }
+
+            Notifier.print("Started server on port: " + port);
+            return true;
+
+        } catch (RuntimeException ex) {
+            Logger.getLogger(Server_LaunchScheduler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        synchronized (this) {
+            committed_memory -= settings.getMemory();
+            launched.remove(port);
+        }
+
+        ServerListener.server_processes.removeGameserver(port);
+        Notifier.print("Failed to start server on port: " + port);
+
+        return false;
+    }
+
+    /**
+     * This method returns the default memory budget, the physical memory less 1024 megabytes
+     * for the host itself.
+     * @return long The memory budget in megabytes, 0 if the physical memory is unknown.
+     */
+    private static long getDefaultMemoryBudget() {
+
+        final OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+
+            final long physical = ((com.sun.management.OperatingSystemMXBean) bean).getTotalPhysicalMemorySize() / (1024 * 1024);
+
+            return Math.max(1024, physical - 1024);
+        }
+
+        return 0;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Launch class holds an admitted gameserver until it's removed from the registry.
+     */
+    private static final class Launch {
+
+        private final Server_Settings settings;
+
+        private Gameserver gameserver = null;
+        private long timestamp = System.currentTimeMillis();
+        private boolean ready = false;
+
+        private Launch(Server_Settings settings) {
+            this.settings = settings;
+        }
+
+        private void started(Gameserver gameserver) {
+            this.gameserver = gameserver;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+}
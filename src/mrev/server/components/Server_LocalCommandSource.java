@@ -0,0 +1,85 @@
+package mrev.server.components;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import mrev.server.database.DatabaseHandler;
+
+/**
+ * The Server_LocalCommandSource class holds server commands submitted from within the
+ * application, such as the local command endpoint. Submitting never touches the database
+ * and commands are picked up by the next poll, the submit listener is notified of each
+ * submitted command thus the next poll can be run at once.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 15:02:37
+ * @version 0.0.1
+ */
+public class Server_LocalCommandSource implements Server_CommandSource {
+    
+    // -------------------------------------------------------------------------
+    
+    private final ConcurrentLinkedQueue<Server_Command> submitted = new ConcurrentLinkedQueue<>();
+    private final AtomicLong ids = new AtomicLong(0);
+    
+    private volatile Runnable listener = null;
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * This method submits a server command. May be called from any thread.
+     * @param port The server port.
+     * @param command The server command.
+     */
+    public void submit(int port, String command) {
+        
+        submitted.add(new Server_Command(this, ids.incrementAndGet(), port, command, 0));
+        
+        final Runnable l = listener;
+        
+        if (l != null) {
+            l.run();
+        }
+    }
+    
+    /**
+     * This method sets the listener notified of each submitted command.
+     * @param listener The submit listener, run by the submitting thread.
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * This method verifies if there are submitted commands which were not yet polled.
+     * @return boolean If there are submitted commands.
+     */
+    public boolean isPending() {
+        return !submitted.isEmpty();
+    }
+    
+    @Override
+    public boolean isUsingDatabase() {
+        return false;
+    }
+    
+    @Override
+    public void poll(DatabaseHandler db, List<Server_Command> commands) {
+        
+        Server_Command command;
+        while ((command = submitted.poll()) != null) {
+            commands.add(command);
+        }
+    }
+    
+    @Override
+    public boolean updateStatus(DatabaseHandler db, Server_Command command, int status) {
+        command.setStatus(status);
+        return true;
+    }
+    
+    @Override
+    public boolean acknowledge(DatabaseHandler db, Server_Command command) {
+        return true;// Nothing kept once claimed
+    }
+}
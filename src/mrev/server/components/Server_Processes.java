@@ -1,44 +1,55 @@
 package mrev.server.components;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import mrev.server.gameserver.Gameserver;
+import mrev.server.gameserver.components.Gameserver_State;
 
 /**
- * The Server_Processes class keep track of both the running and stopped gameservers. When a gameserver
- * is removed it's added to the stopped_gameservers list, waiting for it's final logs to be saved.
+ * The Server_Processes class keep track of the gameservers and their lifecycle state. When a gameserver
+ * has stopped it's flagged as STOPPED, waiting for it's final logs to be saved before it's removed.
+ *
+ * The registry is safe for concurrent use. Each port owns one slot of a port-indexed table, which
+ * is replaced atomically, thus state transitions of different ports never contend. The registered
+ * ports are published as an immutable array, replaced on each registration and removal, which
+ * may be iterated without locking or allocation.
  *
  * @author Richard Dahlgren
  * @since 2014-jun-11, 21:03:01
  * @version 0.0.1
  */
 public class Server_Processes {
-    
+
     // -------------------------------------------------------------------------
-    
-    private final HashMap<Integer, Gameserver> gameservers = new HashMap<>();
-    private final ArrayList<Integer> stopped_gameservers = new ArrayList<>();
-    
+
+    private static final int PORTS = 65536;
+
+    private final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(PORTS);
+    private final AtomicInteger stopped_gameservers = new AtomicInteger(0);
+
+    private volatile int[] ports = new int[0];
+
+    private volatile ExitListener exit_listener = null;
+
     // -------------------------------------------------------------------------
 
     /**
-     * This method verifies if there are any existing/running gameservers.
-     * @return boolean If there are any existing/running gameservers.
+     * This method verifies if there are any registered gameservers.
+     * @return boolean If there are any registered gameservers.
      */
     public boolean isExistingGameservers() {
-        return !gameservers.isEmpty();
+        return ports.length > 0;
     }
-    
+
     /**
      * This method verifies if there are any stopped gameservers.
      * @return boolean If there are any stopped gameservers.
      */
     public boolean isExistingStoppedGameservers() {
-        return !stopped_gameservers.isEmpty();
+        return stopped_gameservers.get() > 0;
     }
-    
+
     /**
      * This method verifies if there is an existing/running gameservers by a
      * given port.
@@ -46,9 +57,10 @@ public class Server_Processes {
      * @return boolean If there are any existing/running gameservers by the given port.
      */
     public boolean isExistingGameserver(int port) {
-        return gameservers.containsKey(port);
+        final Slot slot = slots.get(port);
+        return slot != null && slot.gameserver != null;
     }
-    
+
     /**
      * This method verifies if there is an existing/running gameserver by a
      * given port that has been stopped, waiting to save final logs.
@@ -56,75 +68,282 @@ public class Server_Processes {
      * @return boolean If there is an existing/running gameserver by a given port that has been stopped, waiting to save final logs.
      */
     public boolean isExistingStoppedGameserver(int port) {
-        return stopped_gameservers.contains(port);
+        return getState(port) == Gameserver_State.STOPPED;
     }
-    
+
     /**
      * This method returns a reference to the Gameserver by the given port
      * @param port The server port
-     * @return The Gameserver reference
+     * @return The Gameserver reference or null if not registered
      */
     public Gameserver getGameserver(int port) {
-        return gameservers.get(port);
+        final Slot slot = slots.get(port);
+        return slot == null ? null : slot.gameserver;
     }
-    
+
     /**
-     * This method returns a reference to the set of existing/running gameservers.
-     * @return Set<Entry<Integer, Gameserver>> The set of existing/running gameservers.
+     * This method returns the lifecycle state of the gameserver by the given port.
+     * @param port The server port.
+     * @return Gameserver_State The state or null if the port is not registered.
      */
-    public Set<Entry<Integer, Gameserver>> getSetOfGameservers() {
-        return gameservers.entrySet();
+    public Gameserver_State getState(int port) {
+        final Slot slot = slots.get(port);
+        return slot == null ? null : slot.state;
     }
-    
+
     /**
-     * This method returns a reference to the ArrayList of stopped gameservers.
-     * @return ArrayList<> The ArrayList of stopped gameservers.
+     * This method returns a snapshot of the registered ports. The array is shared and
+     * must not be modified, it's replaced rather than changed when the registry changes.
+     * @return int[] The registered ports.
      */
-    public ArrayList<Integer> getStoppedGameservers() {
-        return stopped_gameservers;
+    public int[] getPorts() {
+        return ports;
     }
-    
+
     /**
-     * This method returns the number of existing/running gameservers.
-     * @return Integer The number of existing/running gameservers.
+     * This method returns the number of registered gameservers.
+     * @return Integer The number of registered gameservers.
      */
     public int getNumberOfGameservers() {
-        return gameservers.size();
+        return ports.length;
+    }
+
+    /**
+     * This method reserves a port for a gameserver about to be started, flagging it as STARTING.
+     * @param port The server port.
+     * @return boolean If the port was reserved, false if it's already registered.
+     */
+    public boolean reserveGameserver(int port) {
+
+        if (!slots.compareAndSet(port, null, new Slot(null, Gameserver_State.STARTING))) {
+            return false;
+        }
+
+        addPort(port);
+        return true;
     }
-    
+
+    /**
+     * This method sets the listener notified when the process of a gameserver exits.
+     * @param exit_listener The exit listener.
+     */
+    public void setExitListener(ExitListener exit_listener) {
+        this.exit_listener = exit_listener;
+    }
+
     /**
-     * This method adds a new existing/running gameserver to the list.
+     * This method adds a new gameserver to the registry, completing a reservation if the
+     * port was reserved. The gameserver is flagged as STARTING until it's done loading.
+     * The exit listener is notified as soon as the gameserver process exits.
      * @param port The server port.
      * @param gameserver The gameserver reference.
      */
-    public void addGameserver(int port, Gameserver gameserver) {
-        gameservers.put(port, gameserver);
+    public void addGameserver(final int port, final Gameserver gameserver) {
+
+        final Slot previous = slots.getAndSet(port, new Slot(gameserver, Gameserver_State.STARTING));
+
+        if (previous == null) {
+            addPort(port);
+        } else if (previous.state == Gameserver_State.STOPPED) {
+            stopped_gameservers.decrementAndGet();
+        }
+
+        final ExitListener listener = exit_listener;
+
+        if (listener != null) {
+            gameserver.getProcess().watchExit(port, new Runnable() {
+
+                @Override
+                public void run() {
+                    listener.exited(port, gameserver);
+                }
+            });
+        }
+    }
+
+    /**
+     * This method atomically changes the state of a gameserver if it's in the expected state.
+     * @param port The server port.
+     * @param expected The expected state.
+     * @param state The new state.
+     * @return boolean If the state was changed.
+     */
+    public boolean setState(int port, Gameserver_State expected, Gameserver_State state) {
+
+        while (true) {
+
+            final Slot slot = slots.get(port);
+
+            if (slot == null || slot.state != expected) {
+                return false;
+            }
+
+            if (slots.compareAndSet(port, slot, new Slot(slot.gameserver, state))) {
+
+                if (state == Gameserver_State.STOPPED && expected != Gameserver_State.STOPPED) {
+                    stopped_gameservers.incrementAndGet();
+                } else if (expected == Gameserver_State.STOPPED && state != Gameserver_State.STOPPED) {
+                    stopped_gameservers.decrementAndGet();
+                }
+
+                return true;
+            }
+        }
+    }
+
+    /**
+     * This method asks a starting or running gameserver to stop and flags it as STOPPING.
+     * @param port The server port.
+     */
+    public void stopGameserver(int port) {
+
+        final Gameserver gameserver = getGameserver(port);
+
+        if (gameserver == null) {
+            return;
+        }
+
+        if (!setState(port, Gameserver_State.RUNNING, Gameserver_State.STOPPING)) {
+            setState(port, Gameserver_State.STARTING, Gameserver_State.STOPPING);
+        }
+
+        gameserver.sendStop(port);
     }
-    
+
     /**
-     * This method adds a stopped gameserver, which is waiting to save final logs, to the list.
+     * This method flags a gameserver as STOPPED, waiting to save final logs.
      * @param port The server port.
+     * @return boolean If the gameserver was flagged, false if already flagged or not registered.
      */
-    public void addStoppedGameserver(int port) {
-        stopped_gameservers.add(port);
+    public boolean addStoppedGameserver(int port) {
+
+        while (true) {
+
+            final Gameserver_State state = getState(port);
+
+            if (state == null || state == Gameserver_State.STOPPED) {
+                return false;
+            }
+
+            if (setState(port, state, Gameserver_State.STOPPED)) {
+                return true;
+            }
+        }
     }
-    
+
     /**
-     * This method removes an existing/running gameserver from the list adds the gameserver to the
-     * stopped_gameservers list, waiting to save it's final logs.
+     * This method removes a gameserver, or a reservation, from the registry.
      * @param port The server port.
      */
     public void removeGameserver(int port) {
-        gameservers.remove(port);
+
+        final Slot previous = slots.getAndSet(port, null);
+
+        if (previous == null) {
+            return;
+        }
+
+        if (previous.state == Gameserver_State.STOPPED) {
+            stopped_gameservers.decrementAndGet();
+        }
+
+        removePort(port);
+    }
+
+    /**
+     * This method publishes a new ports snapshot including the given port.
+     * @param port The server port.
+     */
+    private synchronized void addPort(int port) {
+
+        final int[] current = ports;
+        final int[] updated = Arrays.copyOf(current, current.length + 1);
+
+        updated[current.length] = port;
+        ports = updated;
+    }
+
+    /**
+     * This method publishes a new ports snapshot excluding the given port.
+     * @param port The server port.
+     */
+    private synchronized void removePort(int port) {
+
+        final int[] current = ports;
+
+        for (int i = 0; i < current.length; i++) {
+
+            if (current[i] == port) {
+
+                final int[] updated = new int[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+
+                ports = updated;
+
+                if (updated.length == 0) {
+                    notifyAll();
+                }
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * This method waits until no gameservers are registered.
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return boolean If no gameservers are registered.
+     */
+    public synchronized boolean awaitEmpty(long timeout) {
+
+        final long deadline = System.currentTimeMillis() + timeout;
+
+        while (ports.length > 0) {
+
+            final long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0) {
+                return false;
+            }
+
+            try {
+                wait(remaining);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The ExitListener interface is notified when the process of a gameserver exits.
+     */
+    public interface ExitListener {
+
+        /**
+         * This method is called from the watcher thread of the exited process.
+         * @param port The server port.
+         * @param gameserver The exited gameserver.
+         */
+        void exited(int port, Gameserver gameserver);
     }
-    
+
     /**
-     * This method remove all stopped gameservers, which is waiting to save final logs, from the list.
+     * The Slot class is the immutable registry entry of one port.
      */
-    public void removeStoppedGameservers() {
-        
-        if (!stopped_gameservers.isEmpty()) {
-            stopped_gameservers.clear();
+    private static final class Slot {
+
+        private final Gameserver gameserver;
+        private final Gameserver_State state;
+
+        private Slot(Gameserver gameserver, Gameserver_State state) {
+            this.gameserver = gameserver;
+            this.state = state;
         }
     }
 }
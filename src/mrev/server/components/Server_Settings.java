@@ -0,0 +1,182 @@
+package mrev.server.components;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The Server_Settings class holds the settings of one gameserver, read from a row of
+ * the gameservers_settings table. The row is copied out of the ResultSet, thus the
+ * settings can be applied by other threads after the ResultSet is closed.
+ *
+ * The version column of gameservers_settings shall be incremented on each change of the
+ * row, thus cached settings are known to be current by their version.
+ *
+ * The server.properties content is rendered deterministically, with the properties sorted
+ * and without the date comment of Properties.store, thus unchanged settings always render
+ * the same content.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 16:21:37
+ * @version 0.0.1
+ */
+public class Server_Settings {
+
+    // -------------------------------------------------------------------------
+
+    private final int port;
+    private final long version;
+    private final String jar;
+    private final int memory;
+    private final String level_name;
+    private final Properties properties = new Properties();
+
+    private byte[] properties_content = null;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which reads the settings of the current row.
+     * @param rs The ResultSet positioned on a gameservers_settings row.
+     * @throws SQLException
+     */
+    public Server_Settings(ResultSet rs) throws SQLException {
+
+        port = rs.getInt("server_port");
+        version = rs.getLong("version");
+        jar = rs.getString("jar");
+        memory = rs.getInt("memory");
+        level_name = rs.getString("level_name");
+
+        final Properties p = properties;
+
+        p.setProperty("allow-flight", "" + rs.getBoolean("flight"));
+        p.setProperty("allow-nether", "" + rs.getBoolean("nether"));
+        p.setProperty("announce-player-achievements", "" + rs.getBoolean("announce_achievements"));
+        p.setProperty("difficulty", "" + rs.getInt("difficulty"));
+        p.setProperty("enable-query", "" + rs.getBoolean("query"));
+        p.setProperty("enable-rcon", "false");
+        p.setProperty("enable-command-block", "" + rs.getBoolean("cmd_block"));
+        p.setProperty("force-gamemode", "" + rs.getBoolean("force_gmode"));
+        p.setProperty("gamemode", "" + rs.getInt("gmode"));
+        p.setProperty("generate-structures", "" + rs.getBoolean("gen_structures"));
+        p.setProperty("generator-settings", "" + rs.getString("gen_settings"));
+        p.setProperty("hardcore", "" + rs.getBoolean("hardcore"));
+        p.setProperty("level-name", "" + level_name);
+        p.setProperty("level-seed", "" + rs.getString("level_seed"));
+        p.setProperty("level-type", "" + rs.getString("level_type"));
+        p.setProperty("max-build-height", "" + rs.getInt("build_height"));
+        p.setProperty("max-players", "" + rs.getInt("max_players"));
+        p.setProperty("motd", "" + rs.getString("motd"));
+        p.setProperty("online-mode", "" + rs.getBoolean("online_mode"));
+        p.setProperty("op-permission-level", "" + rs.getInt("op_perm_level"));
+        p.setProperty("player-idle-timeout", "" + rs.getInt("idle_timeout"));
+        p.setProperty("pvp", "" + rs.getBoolean("pvp"));
+        p.setProperty("query.port", "" + port);
+        p.setProperty("rcon.password", "");
+        p.setProperty("rcon.port", "");
+        p.setProperty("resource-pack", "" + rs.getString("res_pack"));
+        p.setProperty("server-ip", "127.0.0.1");
+        p.setProperty("server-name", "" + rs.getString("srv_name"));
+        p.setProperty("server-port", "" + port);
+        p.setProperty("snooper-enabled", "false");
+        p.setProperty("spawn-animals", "" + rs.getBoolean("animals"));
+        p.setProperty("spawn-monsters", "" + rs.getBoolean("monsters"));
+        p.setProperty("spawn-npcs", "" + rs.getBoolean("npcs"));
+        p.setProperty("spawn-protection", "" + rs.getInt("spawn_protection"));
+        p.setProperty("view-distance", "" + rs.getInt("view_dist"));
+        p.setProperty("white-list", "" + rs.getBoolean("whitelist"));
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method returns the server port.
+     * @return int The server port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * This method returns the version of the settings row.
+     * @return long The settings version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * This method returns the gameserver JAR, name and file extension only.
+     * @return String The gameserver JAR.
+     */
+    public String getJar() {
+        return jar;
+    }
+
+    /**
+     * This method returns the amount of max memory to be reserved for the server.
+     * @return int The max memory, in megabytes.
+     */
+    public int getMemory() {
+        return memory;
+    }
+
+    /**
+     * This method returns the level name.
+     * @return String The level name.
+     */
+    public String getLevelName() {
+        return level_name;
+    }
+
+    /**
+     * This method returns the server.properties of the gameserver.
+     * @return Properties The server properties.
+     */
+    public Properties getProperties() {
+        return properties;
+    }
+
+    /**
+     * This method returns the rendered server.properties content.
+     * @return byte[] The server.properties content, shared and not to be modified.
+     */
+    public synchronized byte[] getPropertiesContent() {
+
+        if (properties_content == null) {
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+            try {
+                properties.store(output, null);// ISO 8859-1, other characters escaped
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);// Never thrown by a ByteArrayOutputStream
+            }
+
+            // One property per line, all line breaks within values are escaped
+            final String stored = new String(output.toByteArray(), StandardCharsets.ISO_8859_1);
+            final List<String> lines = new ArrayList<>(Arrays.asList(stored.split("\r?\n")));
+            final StringBuilder content = new StringBuilder();
+
+            Collections.sort(lines);
+
+            for (String line : lines) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    content.append(line).append('\n');
+                }
+            }
+
+            properties_content = content.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        return properties_content;
+    }
+}
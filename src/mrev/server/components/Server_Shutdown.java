@@ -0,0 +1,181 @@
+package mrev.server.components;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import mrev.Notifier;
+import mrev.server.gameserver.Gameserver;
+
+/**
+ * The Server_Shutdown class stops gameservers gracefully. A gameserver is asked to stop by
+ * the stop command, if it's still running after -Dmrev.shutdown.stopTimeout milliseconds
+ * (default 20 seconds) it's process is terminated (SIGTERM), and if it's still running
+ * -Dmrev.shutdown.termTimeout milliseconds later (default 10 seconds) it's killed (SIGKILL).
+ * Each gameserver escalates on it's own timer, thus a gameserver which stops at once is never
+ * held back by another one.
+ *
+ * On application shutdown all gameservers are asked to stop at once and the shutdown is
+ * finished as soon as the last gameserver exited and was cleared.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 19:26:51
+ * @version 0.0.1
+ */
+public class Server_Shutdown {
+
+    // -------------------------------------------------------------------------
+
+    private static final long STOP_TIMEOUT = Long.getLong("mrev.shutdown.stopTimeout", 20 * 1000);
+    private static final long TERM_TIMEOUT = Long.getLong("mrev.shutdown.termTimeout", 10 * 1000);
+    private static final long KILL_TIMEOUT = 5 * 1000;// Killed processes exit at once
+    private static final long FLUSH_TIMEOUT = 10 * 1000;// The final logs of the last gameserver
+
+    private final Server_Processes server_processes;
+    private ScheduledExecutorService scheduler = null;
+
+    private final ConcurrentHashMap<Integer, Gameserver> stopping = new ConcurrentHashMap<>();
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the shutdown coordinator.
+     * @param server_processes The gameserver registry.
+     */
+    public Server_Shutdown(Server_Processes server_processes) {
+        this.server_processes = server_processes;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method asks a gameserver to stop and schedules it's escalation.
+     * @param port The server port.
+     */
+    public void stop(int port) {
+
+        final Gameserver gameserver = server_processes.getGameserver(port);
+
+        if (gameserver == null) {
+            return;
+        }
+
+        server_processes.stopGameserver(port);
+
+        if (stopping.put(port, gameserver) != gameserver) {// Not yet escalating
+            escalate(port, gameserver, STOP_TIMEOUT, false);
+        }
+    }
+
+    /**
+     * This method asks all gameservers to stop at once.
+     */
+    public void stopAll() {
+
+        for (int port : server_processes.getPorts()) {
+            stop(port);
+        }
+    }
+
+    /**
+     * This method waits until all gameservers exited and were cleared.
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return boolean If all gameservers were cleared.
+     */
+    public boolean awaitCleared(long timeout) {
+        return server_processes.awaitEmpty(timeout);
+    }
+
+    /**
+     * This method returns the longest time a gameserver may need to be stopped and cleared.
+     * @return long The time in milliseconds.
+     */
+    public long getTimeout() {
+        return STOP_TIMEOUT + TERM_TIMEOUT + KILL_TIMEOUT + FLUSH_TIMEOUT;
+    }
+
+    /**
+     * This method stops the escalation timers. The timers of the next run are started by
+     * the first gameserver asked to stop.
+     */
+    public void close() {
+
+        final ScheduledExecutorService stopped;
+
+        synchronized (this) {
+
+            stopped = scheduler;
+            scheduler = null;
+        }
+
+        if (stopped != null) {
+            stopped.shutdownNow();
+        }
+
+        stopping.clear();
+    }
+
+    /**
+     * This method returns the scheduler of the escalation timers, starting it if needed.
+     * @return ScheduledExecutorService The scheduler.
+     */
+    private synchronized ScheduledExecutorService getScheduler() {
+
+        if (scheduler == null) {
+
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+
+                    final Thread thread = new Thread(r, "Revision-Shutdown");
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+
+        return scheduler;
+    }
+
+    /**
+     * This method schedules the next escalation step of a stopping gameserver.
+     * @param port The server port.
+     * @param gameserver The stopping gameserver.
+     * @param delay The delay, in milliseconds.
+     * @param kill If the process shall be killed, otherwise terminated.
+     */
+    private void escalate(final int port, final Gameserver gameserver, long delay, final boolean kill) {
+
+        try {
+
+            getScheduler().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    if (server_processes.getGameserver(port) != gameserver || !gameserver.getProcess().isAlive()) {
+                        stopping.remove(port, gameserver);
+                        return;// Exited
+                    }
+
+                    if (kill) {
+                        gameserver.getProcess().kill();
+                        stopping.remove(port, gameserver);
+                        Notifier.print("Server on port " + port + " was killed!");
+
+                    } else {
+                        gameserver.getProcess().terminate();
+                        Notifier.print("Server on port " + port + " was forced to stop!");
+                        escalate(port, gameserver, TERM_TIMEOUT, true);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+
+        } catch (RuntimeException ex) {// Rejected when closed
+            stopping.remove(port, gameserver);
+        }
+    }
+}
@@ -0,0 +1,704 @@
+package mrev.server.components;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import mrev.Notifier;
+import mrev.server.gameserver.components.Gameserver_Spool;
+
+/**
+ * The Server_SnapshotStore class takes and restores snapshots of gameserver directories.
+ *
+ * The files are split into chunks of -Dmrev.snapshot.chunk bytes (default 128 KB), which
+ * are stored once by the SHA-256 of their content in servers/snapshots/chunks, thus unchanged
+ * chunks of a changed region file are shared with earlier snapshots. The files are read chunk by
+ * chunk into one direct buffer per snapshot, rather than mapped, since a mapped file is neither
+ * deleted nor moved on Windows until collected. A file whose size and modification time match
+ * the latest snapshot of the same gameserver is not read at all, it's chunks are taken from that
+ * snapshot.
+ *
+ * Each snapshot is a manifest in servers/snapshots/server_<port>, named by the time it was
+ * taken, listing the directories and the files with their size, modification time and chunks.
+ * A restore builds the directory beside the gameserver directory and swaps it in. Files which
+ * did not change since the snapshot are hard-linked, the others are assembled from the chunks.
+ * The spool of the gameserver is neither part of a snapshot nor replaced by a restore.
+ *
+ * A prune deletes the older snapshots of a gameserver, keeping the latest ones, and collects
+ * the chunks no longer referenced by any snapshot. Each snapshot prunes the older snapshots of
+ * it's gameserver if -Dmrev.snapshot.keep is set (default 0, all kept). Snapshots and restores
+ * share a lock which a prune takes exclusively, thus no chunk in use is collected.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 18:40:12
+ * @version 0.0.1
+ */
+public class Server_SnapshotStore {
+
+    // -------------------------------------------------------------------------
+
+    private static final int CHUNK_SIZE = Integer.getInteger("mrev.snapshot.chunk", 128 * 1024);
+    private static final int KEEP = Integer.getInteger("mrev.snapshot.keep", 0);
+    private static final String EMPTY = "-";
+
+    private final File servers;
+    private final File root;
+    private final File chunks;
+
+    private final Server_WipeEngine wipe_engine;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();// Exclusive to prunes
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the snapshot store.
+     * @param directory The directory of the gameserver directories.
+     * @param wipe_engine The wipe engine, deleting replaced directories.
+     */
+    public Server_SnapshotStore(String directory, Server_WipeEngine wipe_engine) {
+        this.servers = new File(directory);
+        this.root = new File(servers, "snapshots");
+        this.chunks = new File(root, "chunks");
+        this.wipe_engine = wipe_engine;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method takes a snapshot of a gameserver directory. The gameserver shall be stopped.
+     * @param port The server port.
+     * @return String The snapshot name.
+     * @throws IOException
+     */
+    public String snapshot(int port) throws IOException {
+
+        final String name;
+
+        lock.readLock().lock();
+
+        try {
+            name = take(port);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (KEEP > 0) {
+            prune(port, KEEP);
+        }
+
+        return name;
+    }
+
+    /**
+     * This method takes a snapshot of a gameserver directory, holding the lock.
+     */
+    private String take(int port) throws IOException {
+
+        final long started = System.currentTimeMillis();
+
+        final Path directory = new File(servers, "server_" + port).toPath();
+        final File manifests = new File(root, "server_" + port);
+
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Missing server directory: " + directory);
+        }
+
+        Files.createDirectories(manifests.toPath());
+        Files.createDirectories(chunks.toPath());
+
+        final String latest = getLatest(port);
+        final Map<String, Entry> previous = latest == null ? new HashMap<String, Entry>() : index(readManifest(port, latest));
+
+        final List<Entry> entries = new ArrayList<>();
+        final long[] counters = new long[3];// Files read, chunks written, bytes written
+
+        walk(directory, directory, previous, entries, counters, ByteBuffer.allocateDirect(CHUNK_SIZE));
+
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(started));
+        for (int i = 1; new File(manifests, name + ".manifest").exists(); i++) {
+            name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(started)) + "-" + i;
+        }
+
+        writeManifest(new File(manifests, name + ".manifest").toPath(), entries);
+
+        Notifier.print("Snapshot " + name + " of server on port " + port + " taken in " + ((System.currentTimeMillis() - started) / 1000) + " seconds: " +
+                       entries.size() + " entries, " + counters[0] + " files read, " + counters[1] + " new chunks (" + (counters[2] / (1024 * 1024)) + " MB)");
+
+        return name;
+    }
+
+    /**
+     * This method restores a gameserver directory from a snapshot. The gameserver shall be stopped.
+     * @param port The server port.
+     * @param name The snapshot name, or null for the latest snapshot.
+     * @throws IOException
+     */
+    public void restore(int port, String name) throws IOException {
+
+        lock.readLock().lock();
+
+        try {
+            restoreLocked(port, name);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method restores a gameserver directory from a snapshot, holding the lock.
+     */
+    private void restoreLocked(int port, String name) throws IOException {
+
+        final long started = System.currentTimeMillis();
+
+        final String snapshot = name == null ? getLatest(port) : name;
+
+        if (snapshot == null || !snapshot.matches("[0-9-]+")) {
+            throw new IOException("No such snapshot of server on port " + port + ": " + name);
+        }
+
+        final List<Entry> entries = readManifest(port, snapshot);
+        final Path directory = new File(servers, "server_" + port).toPath();
+        final Path staging = new File(new File(servers, ".restore"), "server_" + port).toPath();
+
+        if (Files.exists(staging)) {// Left by a failed restore
+            wipe_engine.wipe(staging.toFile());
+        }
+
+        Files.createDirectories(staging);
+
+        long linked = 0;
+        long assembled = 0;
+
+        for (Entry entry : entries) {
+
+            if (entry.path.equals(Gameserver_Spool.DIRECTORY) || entry.path.startsWith(Gameserver_Spool.DIRECTORY + "/")) {
+                continue;// Taken before the spool was kept out of snapshots
+            }
+
+            final Path target = staging.resolve(entry.path);
+
+            if (entry.directory) {
+                Files.createDirectories(target);
+                continue;
+            }
+
+            Files.createDirectories(target.getParent());
+
+            final Path live = directory.resolve(entry.path);
+
+            if (isUnchanged(live, entry) && link(live, target)) {
+                linked++;
+                continue;
+            }
+
+            assemble(entry, target);
+            assembled++;
+        }
+
+        // Keep the spool, the sequence numbers of it's lines never go back. It's closed
+        // meanwhile, a directory holding mapped files is not moved on Windows
+        final Path spool = directory.resolve(Gameserver_Spool.DIRECTORY);
+
+        if (!Gameserver_Spool.close(port)) {
+            throw new IOException("Server on port " + port + " is still writing to it's spool");
+        }
+
+        try {
+
+            if (Files.isDirectory(spool)) {
+                Files.move(spool, staging.resolve(Gameserver_Spool.DIRECTORY), StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            // Swap the restored directory in
+            if (!wipe_engine.wipe(directory.toFile())) {
+                throw new IOException("Failed to replace server directory: " + directory);
+            }
+
+            Files.move(staging, directory, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            Gameserver_Spool.reopen(port);
+        }
+
+        Notifier.print("Snapshot " + snapshot + " of server on port " + port + " restored in " + ((System.currentTimeMillis() - started) / 1000) + " seconds: " +
+                       linked + " files linked, " + assembled + " files assembled");
+    }
+
+    /**
+     * This method returns the name of the latest snapshot of a gameserver.
+     * @param port The server port.
+     * @return String The snapshot name or null if there is none.
+     */
+    public String getLatest(int port) {
+
+        final String[] names = new File(root, "server_" + port).list();
+
+        if (names == null) {
+            return null;
+        }
+
+        Arrays.sort(names);
+
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i].endsWith(".manifest")) {
+                return names[i].substring(0, names[i].length() - ".manifest".length());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * This method deletes the older snapshots of a gameserver, keeping the latest ones, and
+     * collects the chunks no longer referenced by any snapshot of any gameserver.
+     * @param port The server port.
+     * @param keep The number of latest snapshots kept, or 0 to only collect the chunks.
+     * @throws IOException
+     */
+    public void prune(int port, int keep) throws IOException {
+
+        final long started = System.currentTimeMillis();
+
+        lock.writeLock().lock();
+
+        try {
+
+            int pruned = 0;
+
+            final String[] names = new File(root, "server_" + port).list();
+
+            if (keep > 0 && names != null) {
+
+                final List<String> manifests = new ArrayList<>();
+
+                for (String manifest : names) {
+                    if (manifest.endsWith(".manifest")) {
+                        manifests.add(manifest);
+                    }
+                }
+
+                Collections.sort(manifests);
+
+                for (int i = 0; i < manifests.size() - keep; i++) {
+                    Files.delete(new File(new File(root, "server_" + port), manifests.get(i)).toPath());
+                    pruned++;
+                }
+            }
+
+            // Mark the chunks of the remaining snapshots
+            final Set<String> referenced = new HashSet<>();
+            final File[] servers = root.listFiles();
+
+            if (servers != null) {
+                for (File server : servers) {
+
+                    final String[] manifests = server.getName().startsWith("server_") ? server.list() : null;
+
+                    if (manifests == null) {
+                        continue;
+                    }
+
+                    for (String manifest : manifests) {
+
+                        if (!manifest.endsWith(".manifest")) {
+                            continue;
+                        }
+
+                        for (Entry entry : readManifest(server, manifest.substring(0, manifest.length() - ".manifest".length()))) {
+                            if (!entry.directory) {
+                                referenced.addAll(Arrays.asList(entry.chunks));
+                            }
+                        }
+                    }
+                }
+            }
+
+            // Sweep the others, and the leftovers of interrupted writes
+            long collected = 0;
+            long bytes = 0;
+
+            final File[] prefixes = chunks.listFiles();
+
+            if (prefixes != null) {
+                for (File prefix : prefixes) {
+
+                    final File[] stored = prefix.listFiles();
+
+                    if (stored == null) {
+                        continue;
+                    }
+
+                    for (File chunk : stored) {
+
+                        if (referenced.contains(chunk.getName())) {
+                            continue;
+                        }
+
+                        final long length = chunk.length();
+
+                        if (chunk.delete()) {
+                            collected++;
+                            bytes += length;
+                        }
+                    }
+                }
+            }
+
+            Notifier.print("Pruned " + pruned + " snapshots of server on port " + port + " in " + ((System.currentTimeMillis() - started) / 1000) + " seconds: " +
+                           collected + " chunks collected (" + (bytes / (1024 * 1024)) + " MB)");
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method walks a directory, adding an entry per directory and file.
+     */
+    private void walk(Path root, Path directory, Map<String, Entry> previous, List<Entry> entries, long[] counters, ByteBuffer buffer) throws IOException {
+
+        final File[] children = directory.toFile().listFiles();
+
+        if (children == null) {
+            return;
+        }
+
+        Arrays.sort(children);
+
+        for (File child : children) {
+
+            final Path path = child.toPath();
+
+            if (Files.isSymbolicLink(path)) {
+                continue;
+            }
+
+            final String relative = root.relativize(path).toString().replace(File.separatorChar, '/');
+
+            if (relative.equals(Gameserver_Spool.DIRECTORY)) {
+                continue;// The spool is kept by a restore, not part of snapshots
+            }
+
+            if (child.isDirectory()) {
+                entries.add(new Entry(relative));
+                walk(root, path, previous, entries, counters, buffer);
+                continue;
+            }
+
+            final long size = Files.size(path);
+            final long modified = Files.getLastModifiedTime(path).toMillis();
+            final Entry earlier = previous.get(relative);
+
+            if (earlier != null && !earlier.directory && earlier.size == size && earlier.modified == modified) {
+                entries.add(earlier);// Unchanged, not read
+                continue;
+            }
+
+            entries.add(new Entry(relative, size, modified, store(path, size, counters, buffer)));
+            counters[0]++;
+        }
+    }
+
+    /**
+     * This method stores the chunks of a file, reading each chunk into the buffer.
+     * @return String[] The checksums of the chunks.
+     */
+    private String[] store(Path file, long size, long[] counters, ByteBuffer buffer) throws IOException {
+
+        final String[] checksums = new String[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            long position = 0;
+
+            for (int chunk = 0; chunk < checksums.length; chunk++) {
+
+                buffer.clear();
+                buffer.limit((int) Math.min(CHUNK_SIZE, size - position));
+
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("File changed while taking a snapshot: " + file);
+                    }
+                }
+
+                buffer.flip();
+                position += buffer.limit();
+
+                final String checksum = digest(buffer.duplicate());
+                final File stored = getChunk(checksum);
+
+                if (!stored.exists()) {
+                    counters[1]++;
+                    counters[2] += buffer.limit();
+                    writeChunk(stored, buffer);
+                }
+
+                checksums[chunk] = checksum;
+            }
+        }
+
+        return checksums;
+    }
+
+    /**
+     * This method writes a chunk, atomically. Each writer has it's own temporary file, a chunk
+     * stored meanwhile by a parallel snapshot has the same content and is kept.
+     */
+    private void writeChunk(File stored, ByteBuffer content) throws IOException {
+
+        Files.createDirectories(stored.getParentFile().toPath());
+
+        final Path temporary = Files.createTempFile(stored.getParentFile().toPath(), stored.getName(), ".tmp");
+
+        try {
+
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            }
+
+            Files.move(temporary, stored.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (FileAlreadyExistsException ex) {
+            // Stored by a parallel snapshot
+
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * This method assembles a file from it's chunks.
+     */
+    private void assemble(Entry entry, Path target) throws IOException {
+
+        try (FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            for (String checksum : entry.chunks) {
+
+                final File stored = getChunk(checksum);
+
+                try (FileChannel input = FileChannel.open(stored.toPath(), StandardOpenOption.READ)) {
+
+                    final long size = input.size();
+                    long position = 0;
+
+                    while (position < size) {
+                        position += input.transferTo(position, size - position, output);
+                    }
+                }
+            }
+        }
+
+        if (Files.size(target) != entry.size) {
+            throw new IOException("Snapshot corrupted, size mismatch of " + entry.path);
+        }
+
+        Files.setLastModifiedTime(target, FileTime.fromMillis(entry.modified));
+    }
+
+    /**
+     * This method verifies if a live file is unchanged since the snapshot.
+     */
+    private boolean isUnchanged(Path live, Entry entry) throws IOException {
+        return Files.isRegularFile(live) && Files.size(live) == entry.size && Files.getLastModifiedTime(live).toMillis() == entry.modified;
+    }
+
+    /**
+     * This method hard-links a file, returning false if the file system does not support it.
+     */
+    private boolean link(Path existing, Path link) {
+
+        try {
+
+            Files.createLink(link, existing);
+            return true;
+
+        } catch (UnsupportedOperationException | IOException ex) {
+            return false;
+        }
+    }
+
+    private File getChunk(String checksum) {
+        return new File(new File(chunks, checksum.substring(0, 2)), checksum);
+    }
+
+    private static String digest(ByteBuffer content) {
+
+        final MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);// Required on every Java platform
+        }
+
+        digest.update(content);
+
+        final StringBuilder hex = new StringBuilder(64);
+
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method writes a manifest, atomically. Each line is either "D <path>" or
+     * "F <size> <modified> <chunks> <path>", tab separated, the chunks comma separated.
+     */
+    private void writeManifest(Path manifest, List<Entry> entries) throws IOException {
+
+        final Path temporary = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+
+            for (Entry entry : entries) {
+
+                if (entry.directory) {
+                    writer.write("D\t" + entry.path);
+
+                } else {
+                    writer.write("F\t" + entry.size + "\t" + entry.modified + "\t" + (entry.chunks.length == 0 ? EMPTY : join(entry.chunks)) + "\t" + entry.path);
+                }
+
+                writer.newLine();
+            }
+        }
+
+        Files.move(temporary, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Entry> readManifest(int port, String name) throws IOException {
+        return readManifest(new File(root, "server_" + port), name);
+    }
+
+    private List<Entry> readManifest(File manifests, String name) throws IOException {
+
+        final Path manifest = new File(manifests, name + ".manifest").toPath();
+        final List<Entry> entries = new ArrayList<>();
+
+        if (!Files.isRegularFile(manifest)) {
+            throw new IOException("No such snapshot: " + manifest);
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                final String[] fields = line.split("\t", 5);
+
+                if (fields[0].equals("D") && fields.length == 2) {
+                    entries.add(new Entry(checkPath(fields[1])));
+
+                } else if (fields[0].equals("F") && fields.length == 5) {
+                    entries.add(new Entry(checkPath(fields[4]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                                          fields[3].equals(EMPTY) ? new String[0] : fields[3].split(",")));
+
+                } else {
+                    throw new IOException("Snapshot corrupted, invalid manifest line: " + line);
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static String checkPath(String path) throws IOException {
+
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                throw new IOException("Snapshot corrupted, invalid path: " + path);
+            }
+        }
+
+        return path;
+    }
+
+    private static Map<String, Entry> index(List<Entry> entries) {
+
+        final Map<String, Entry> index = new HashMap<>(entries.size() * 2);
+
+        for (Entry entry : entries) {
+            index.put(entry.path, entry);
+        }
+
+        return index;
+    }
+
+    private static String join(String[] values) {
+
+        final StringBuilder joined = new StringBuilder(values.length * 65);
+
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(value);
+        }
+
+        return joined.toString();
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Entry class is a directory or file of a snapshot.
+     */
+    private static final class Entry {
+
+        private final String path;
+        private final boolean directory;
+        private final long size;
+        private final long modified;
+        private final String[] chunks;
+
+        private Entry(String path) {
+            this.path = path;
+            this.directory = true;
+            this.size = 0;
+            this.modified = 0;
+            this.chunks = null;
+        }
+
+        private Entry(String path, long size, long modified, String[] chunks) {
+            this.path = path;
+            this.directory = false;
+            this.size = size;
+            this.modified = modified;
+            this.chunks = chunks;
+        }
+    }
+}
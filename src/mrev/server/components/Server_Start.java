@@ -1,154 +1,369 @@
 package mrev.server.components;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Properties;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import mrev.Notifier;
 import mrev.server.ServerListener;
+import mrev.server.database.DatabaseConnection;
 import mrev.server.database.DatabaseHandler;
-import mrev.server.gameserver.Gameserver;
-import org.apache.commons.io.FileUtils;
+import mrev.server.gameserver.components.Gameserver_State;
 
 /**
  * The Server_Start class handle the startup of gameservers.
  *
+ * On application restart all servers are started in bulk. The settings of all servers are
+ * read by one query, the server files are prepared in parallel and the prepared servers are
+ * queued for launch at once. The processes are launched by the launch scheduler, when the
+ * host resources admit them.
+ *
  * @author Richard Dahlgren
  * @since 2014-jul-02, 17:03:15
  * @version 0.0.1
  */
 public class Server_Start {
     
+    // -------------------------------------------------------------------------
+    
+    private static final int STARTUP_THREADS = Integer.getInteger("mrev.startup.threads", Runtime.getRuntime().availableProcessors());
+    
+    private final Server_LaunchScheduler launch_scheduler = new Server_LaunchScheduler(this);
+    private final Server_JarStore jar_store = new Server_JarStore("servers/jars");
+    
+    private final ConcurrentHashMap<Integer, Server_Settings> settings_cache = new ConcurrentHashMap<>();
+    
+    // -------------------------------------------------------------------------
+    
     /**
      * This method start all valid gameserver on application restart.
      * @param db The database reference.
-     * @return boolean If the servers was started.
+     * @return int The number of servers queued for launch, or -1 if they failed to be started.
      */
-    public boolean startServers(DatabaseHandler db) {
+    public int startServers(DatabaseHandler db) {
         
-        try {
-            
-            final PreparedStatement ps1 = db.getMainConnection().prepareStatement("SELECT server_port FROM gameservers_status WHERE online_on_restart = ?");
-            final PreparedStatement ps2 = db.getMainConnection().prepareStatement("SELECT * FROM gameservers_settings WHERE date_suspended IS NULL AND server_port = ? OR date_suspended >= CURDATE( ) AND server_port = ?");
+        final long started = System.nanoTime();
+        long phase = started;
+        
+        // Settings of all servers to be started, reserved in the registry
+        final List<Server_Settings> servers = new ArrayList<>();
+        
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
             
-            ps1.setBoolean(1, true);
+            final PreparedStatement ps = conn.prepareStatement("SELECT settings.* FROM gameservers_settings AS settings JOIN gameservers_status AS status ON status.server_port = settings.server_port WHERE status.online_on_restart = ? AND (settings.date_suspended IS NULL OR settings.date_suspended >= CURDATE( ))");
+            ps.setBoolean(1, true);
             
-            final ResultSet rs1 = ps1.executeQuery();
+            final ResultSet rs = ps.executeQuery();
             
-            while (rs1.next()) {
+            while (rs.next()) {
                 
-                final int port = rs1.getInt("server_port");
-                ps2.setInt(1, port);
-                ps2.setInt(2, port);
-                
-                final ResultSet rs2 = ps2.executeQuery();
+                final Server_Settings settings = new Server_Settings(rs);
+                settings_cache.put(settings.getPort(), settings);
                 
-                if (rs2.next()) {
-                    if (startServer(db, rs2)) {
-                        Notifier.print("Started server on port: " + port);
-                    } else {
-                        Notifier.print("Failed to start server on port: " + port);
-                    }
+                if (ServerListener.server_processes.reserveGameserver(settings.getPort())) {
+                    servers.add(settings);
                 }
+            }
+            
+            rs.close();
+            ps.close();
+            
+        } catch (SQLException ex) {
+            Logger.getLogger(Server_Start.class.getName()).log(Level.SEVERE, null, ex);
+            release(servers);
+            return -1;
+        }
+        
+        phase = printPhase("read settings of " + servers.size() + " servers", phase);
+        
+        if (servers.isEmpty()) {
+            return 0;
+        }
+        
+        final ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, STARTUP_THREADS), new ThreadFactory() {
+            
+            private final AtomicInteger count = new AtomicInteger(0);
+            
+            @Override
+            public Thread newThread(Runnable r) {
                 
-                rs2.close();
+                final Thread thread = new Thread(r, "Revision-Startup-" + count.incrementAndGet());
+                thread.setDaemon(true);
                 
+                return thread;
             }
+        });
+        
+        final List<Integer> ports = new ArrayList<>();
+        
+        try {
             
-            ps2.close();
-            rs1.close();
-            ps1.close();
+            // Server files, in parallel
+            final List<Callable<Boolean>> preparations = new ArrayList<>();
             
-        } catch (SQLException ex) {
+            for (final Server_Settings settings : servers) {
+                preparations.add(new Callable<Boolean>() {
+                    
+                    @Override
+                    public Boolean call() throws Exception {
+                        setServerSettings(settings);
+                        return true;
+                    }
+                });
+            }
+            
+            final List<Server_Settings> prepared = collect(servers, workers.invokeAll(preparations));
+            
+            phase = printPhase("prepared files of " + prepared.size() + " servers", phase);
+            
+            for (Server_Settings settings : prepared) {
+                ports.add(settings.getPort());
+            }
+            
+            // Queued before launched, thus the status never goes back from starting to queued
+            updateServerState(db, Gameserver_State.QUEUED, ports);
+            
+            phase = printPhase("updated status", phase);
+            
+            // Processes, launched by the launch scheduler
+            for (Server_Settings settings : prepared) {
+                launch_scheduler.enqueue(settings);
+            }
+            
+            phase = printPhase("queued " + ports.size() + " servers", phase);
+            
+        } catch (InterruptedException ex) {// Interrupted while preparing, nothing queued yet
             Logger.getLogger(Server_Start.class.getName()).log(Level.SEVERE, null, ex);
-            return false;
+            Thread.currentThread().interrupt();
+            release(servers);
+            return -1;
+            
+        } finally {
+            workers.shutdown();
         }
         
-        return true;
+        launch_scheduler.schedule(db);
+        
+        printPhase("launched first servers", phase);
+        printPhase("queued " + ports.size() + " of " + servers.size() + " servers in total", started);
+        
+        return ports.size();
     }
 
     /**
-     * This method start one single gameserver with the function below.
+     * This method queue one single gameserver for launch with the function below.
      * @param db The database reference.
      * @param port The server port.
-     * @return boolean If the server was started.
+     * @return boolean If the server was queued.
      */
     public boolean startServer(DatabaseHandler db, int port) {
         
-        boolean started = false;
+        Server_Settings settings = null;
         
-        try {
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
             
-            final PreparedStatement ps = db.getMainConnection().prepareStatement("SELECT * FROM gameservers_settings WHERE server_port = ?");
+            // Probe the version, the whole row is only read when changed
+            final PreparedStatement ps1 = conn.prepareStatement("SELECT version FROM gameservers_settings WHERE server_port = ?");
             
-            ps.setInt(1, port);
+            ps1.setInt(1, port);
             
-            final ResultSet rs = ps.executeQuery();
+            final ResultSet rs1 = ps1.executeQuery();
             
-            if (rs.next()) {
-                started = startServer(db, rs);
+            if (rs1.next()) {
+                
+                final Server_Settings cached = settings_cache.get(port);
+                
+                if (cached != null && cached.getVersion() == rs1.getLong("version")) {
+                    settings = cached;
+                }
+                
+            } else {
+                settings_cache.remove(port);
             }
             
-            rs.close();
-            ps.close();
+            rs1.close();
+            ps1.close();
+            
+            if (settings == null) {
+                
+                final PreparedStatement ps2 = conn.prepareStatement("SELECT * FROM gameservers_settings WHERE server_port = ?");
+                
+                ps2.setInt(1, port);
+                
+                final ResultSet rs2 = ps2.executeQuery();
+                
+                if (rs2.next()) {
+                    settings = new Server_Settings(rs2);
+                    settings_cache.put(port, settings);
+                }
+                
+                rs2.close();
+                ps2.close();
+            }
             
         } catch (SQLException ex) {
             Logger.getLogger(Server_Start.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
         }
         
-        return started;
+        if (settings == null) {
+            return false;
+        }
+        
+        return startServer(db, settings);
     }
     
     /**
-     * This method start one single gameserver.
+     * This method prepare one single gameserver and queue it for launch.
      * @param db The database reference.
-     * @param rs The ResultSet containing the server data.
-     * @return boolean If the server was started.
-     * @throws SQLException 
+     * @param settings The server settings.
+     * @return boolean If the server was queued.
      */
-    private boolean startServer(DatabaseHandler db, ResultSet rs) throws SQLException {
+    private boolean startServer(DatabaseHandler db, Server_Settings settings) {
        
-        final int port = rs.getInt("server_port");
-        final String jar = rs.getString("jar");
-                
+        final int port = settings.getPort();
+        
+        if (!ServerListener.server_processes.reserveGameserver(port)) {
+            return false;// Already registered
+        }
+        
         try {
             
-            setServerSettings(rs, jar, port);
+            setServerSettings(settings);
             
         } catch (IOException ex) {
             Logger.getLogger(Server_Start.class.getName()).log(Level.SEVERE, null, ex);
+            ServerListener.server_processes.removeGameserver(port);
             return false;
         }
         
-        final int memory = rs.getInt("memory");
+        final List<Integer> ports = new ArrayList<>(1);
+        ports.add(port);
         
-        createLogTable(db, port);
+        // Queued before launched, thus the status never goes back from starting to queued
+        updateServerState(db, Gameserver_State.QUEUED, ports);
         
-        final Gameserver gameserver = new Gameserver(port, jar, memory);
+        launch_scheduler.enqueue(settings);
         
-        ServerListener.server_processes.addGameserver(port, gameserver);
-        updateServerStatusAndOnCoreRestart(db, true, false, port);
+        return true;
+    }
+    
+    /**
+     * This method launches the queued gameservers admitted by the host resources.
+     * @param db The database reference.
+     */
+    public void scheduleLaunches(DatabaseHandler db) {
+        launch_scheduler.schedule(db);
+    }
+    
+    /**
+     * This method cancels the queued launch of a gameserver.
+     * @param db The database reference.
+     * @param port The server port.
+     * @return boolean If a queued launch was cancelled.
+     */
+    public boolean cancelLaunch(DatabaseHandler db, int port) {
+        
+        if (!launch_scheduler.cancel(port)) {
+            return false;
+        }
+        
+        updateServerStatusAndOnCoreRestart(db, false, false, port);
         
         return true;
     }
     
     /**
-     * This method create a log-table for a specific gameserver if it doesn't exist
-     * @param db The database reference
-     * @param port The server port
-     * @throws SQLException 
+     * This method cancels all queued launches.
+     * @param db The database reference.
+     * @param online_on_restart If the cancelled servers shall start on restart.
+     */
+    public void cancelLaunches(DatabaseHandler db, boolean online_on_restart) {
+        updateServerStatusAndOnCoreRestart(db, false, online_on_restart, launch_scheduler.cancelAll());
+    }
+    
+    /**
+     * This method verifies if any launches are queued.
+     * @return boolean If any launches are queued.
+     */
+    public boolean isLaunchPending() {
+        return launch_scheduler.isPending();
+    }
+    
+    /**
+     * This method collects the servers whose task succeeded. The reservations of the
+     * servers whose task failed are released.
+     * @param servers The servers, in the order of the tasks.
+     * @param results The results of the tasks.
+     * @return List The servers whose task succeeded.
+     * @throws InterruptedException 
+     */
+    private List<Server_Settings> collect(List<Server_Settings> servers, List<Future<Boolean>> results) throws InterruptedException {
+        
+        final List<Server_Settings> succeeded = new ArrayList<>();
+        
+        for (int i = 0; i < servers.size(); i++) {
+            
+            final Server_Settings settings = servers.get(i);
+            
+            try {
+                
+                results.get(i).get();
+                succeeded.add(settings);
+                
+            } catch (ExecutionException ex) {
+                Logger.getLogger(Server_Start.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                ServerListener.server_processes.removeGameserver(settings.getPort());
+                Notifier.print("Failed to start server on port: " + settings.getPort());
+            }
+        }
+        
+        return succeeded;
+    }
+    
+    /**
+     * This method releases the reservations of servers which will not be started.
+     * @param servers The reserved servers.
      */
-    private void createLogTable(DatabaseHandler db, int port) throws SQLException {
+    private void release(List<Server_Settings> servers) {
         
-        final PreparedStatement ps = db.getLogConnection().prepareStatement("CREATE TABLE IF NOT EXISTS server_" + port + " (id int(11) NOT NULL AUTO_INCREMENT, log_text text NOT NULL, PRIMARY KEY (id))");
-        ps.executeUpdate();
+        for (Server_Settings settings : servers) {
+            ServerListener.server_processes.removeGameserver(settings.getPort());
+        }
+    }
+    
+    /**
+     * This method prints the duration of a startup phase.
+     * @param phase The phase description.
+     * @param started The nanoTime when the phase started.
+     * @return long The current nanoTime.
+     */
+    private long printPhase(String phase, long started) {
         
+        final long now = System.nanoTime();
+        
+        Notifier.print("Startup " + phase + " in " + ((now - started) / 1000000) + " ms");
+        
+        return now;
     }
     
     /**
@@ -161,14 +376,41 @@ public class Server_Start {
      */
     public boolean updateServerStatusAndOnCoreRestart(DatabaseHandler db, boolean online, boolean online_on_restart, int port) {
         
-        try {
+        final List<Integer> ports = new ArrayList<>(1);
+        ports.add(port);
+        
+        return updateServerStatusAndOnCoreRestart(db, online, online_on_restart, ports);
+    }
+    
+    /**
+     * This method update the status of several gameservers in one batch. The state is
+     * set to 'starting' for online servers and 'stopped' otherwise
+     * @param db The database reference
+     * @param online If the servers are online
+     * @param online_on_restart If the servers shall start on restart
+     * @param ports The server ports
+     * @return If operation was successfull
+     */
+    public boolean updateServerStatusAndOnCoreRestart(DatabaseHandler db, boolean online, boolean online_on_restart, List<Integer> ports) {
+        
+        if (ports.isEmpty()) {
+            return true;
+        }
+        
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
+            
+            final PreparedStatement ps = conn.prepareStatement("UPDATE gameservers_status SET online = ?, online_on_restart = ?, state = ? WHERE server_port = ?");
+            final String state = getStateName(online ? Gameserver_State.STARTING : Gameserver_State.STOPPED);
             
-            final PreparedStatement ps = db.getMainConnection().prepareStatement("UPDATE gameservers_status SET online = ?, online_on_restart = ? WHERE server_port = ?");
-            ps.setBoolean(1, online);
-            ps.setBoolean(2, online_on_restart);
-            ps.setInt(3, port);
+            for (int port : ports) {
+                ps.setBoolean(1, online);
+                ps.setBoolean(2, online_on_restart);
+                ps.setString(3, state);
+                ps.setInt(4, port);
+                ps.addBatch();
+            }
             
-            ps.executeUpdate();
+            ps.executeBatch();
             ps.close();
             
         } catch (SQLException ex) {
@@ -179,110 +421,97 @@ public class Server_Start {
     }
     
     /**
-     * This method set the gameserver settings upon startup.
-     * @param rs The ResultSet containing the gameserver data.
-     * @param jar The gameserver JAR to be used, name and file extension only.
-     * @param port The gameserver port.
+     * This method update the launch state of several gameservers in one batch
+     * @param db The database reference
+     * @param state The launch state
+     * @param ports The server ports
+     * @return If operation was successfull
+     */
+    public boolean updateServerState(DatabaseHandler db, Gameserver_State state, List<Integer> ports) {
+        
+        if (ports.isEmpty()) {
+            return true;
+        }
+        
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
+            
+            final PreparedStatement ps = conn.prepareStatement("UPDATE gameservers_status SET state = ? WHERE server_port = ?");
+            
+            for (int port : ports) {
+                ps.setString(1, getStateName(state));
+                ps.setInt(2, port);
+                ps.addBatch();
+            }
+            
+            ps.executeBatch();
+            ps.close();
+            
+        } catch (SQLException ex) {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * This method returns the name of a launch state in the status table.
+     * @param state The launch state.
+     * @return String The state name.
+     */
+    private String getStateName(Gameserver_State state) {
+        return state.name().toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * This method set the gameserver settings upon startup. The server.properties file is
+     * only written when it's content changed, replacing the file atomically.
+     * @param settings The gameserver settings.
      * @throws IOException
-     * @throws SQLException 
      */
-    private void setServerSettings(ResultSet rs, String jar, int port) throws IOException, SQLException {
+    private void setServerSettings(Server_Settings settings) throws IOException {
         
-        final String dir = "servers/server_" + port + "/";
+        final String dir = "servers/server_" + settings.getPort() + "/";
         
         // Create files
-        createProperyFile(dir);
-        createJarFile(dir, jar);
+        createServerDirectory(dir);
+        createJarFile(dir, settings.getJar());
         
         // Set properties
-        final Properties p = new Properties();
-        final OutputStream output = new FileOutputStream(dir + "server.properties");
-        
-        p.setProperty("allow-flight", "" + rs.getBoolean("flight"));
-        p.setProperty("allow-nether", "" + rs.getBoolean("nether"));
-        p.setProperty("announce-player-achievements", "" + rs.getBoolean("announce_achievements"));
-        p.setProperty("difficulty", "" + rs.getInt("difficulty"));
-        p.setProperty("enable-query", "" + rs.getBoolean("query"));
-        p.setProperty("enable-rcon", "false");
-        p.setProperty("enable-command-block", "" + rs.getBoolean("cmd_block"));
-        p.setProperty("force-gamemode", "" + rs.getBoolean("force_gmode"));
-        p.setProperty("gamemode", "" + rs.getInt("gmode"));
-        p.setProperty("generate-structures", "" + rs.getBoolean("gen_structures"));
-        p.setProperty("generator-settings", "" + rs.getString("gen_settings"));
-        p.setProperty("hardcore", "" + rs.getBoolean("hardcore"));
-        p.setProperty("level-name", "" + rs.getString("level_name"));
-        p.setProperty("level-seed", "" + rs.getString("level_seed"));
-        p.setProperty("level-type", "" + rs.getString("level_type"));
-        p.setProperty("max-build-height", "" + rs.getInt("build_height"));
-        p.setProperty("max-players", "" + rs.getInt("max_players"));
-        p.setProperty("motd", "" + rs.getString("motd"));
-        p.setProperty("online-mode", "" + rs.getBoolean("online_mode"));
-        p.setProperty("op-permission-level", "" + rs.getInt("op_perm_level"));
-        p.setProperty("player-idle-timeout", "" + rs.getInt("idle_timeout"));
-        p.setProperty("pvp", "" + rs.getBoolean("pvp"));
-        p.setProperty("query.port", "" + port);
-        p.setProperty("rcon.password", "");
-        p.setProperty("rcon.port", "");
-        p.setProperty("resource-pack", "" + rs.getString("res_pack"));
-        p.setProperty("server-ip", "127.0.0.1");
-        p.setProperty("server-name", "" + rs.getString("srv_name"));
-        p.setProperty("server-port", "" + port);
-        p.setProperty("snooper-enabled", "false");
-        p.setProperty("spawn-animals", "" + rs.getBoolean("animals"));
-        p.setProperty("spawn-monsters", "" + rs.getBoolean("monsters"));
-        p.setProperty("spawn-npcs", "" + rs.getBoolean("npcs"));
-        p.setProperty("spawn-protection", "" + rs.getInt("spawn_protection"));
-        p.setProperty("view-distance", "" + rs.getInt("view_dist"));
-        p.setProperty("white-list", "" + rs.getBoolean("whitelist"));
-        
-        p.store(output, null);
-        output.close();
+        final Path properties = Paths.get(dir, "server.properties");
+        final byte[] content = settings.getPropertiesContent();
+        
+        if (Files.isRegularFile(properties) && Files.size(properties) == content.length &&
+            Arrays.equals(Files.readAllBytes(properties), content)) {
+            return;// Unchanged
+        }
+        
+        final Path temporary = Paths.get(dir, "server.properties.tmp");
+        
+        Files.write(temporary, content);
+        Files.move(temporary, properties, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
     
     /**
-     * This method create a new properies file for the gameserver.
+     * This method create the gameserver directory if it doesn't exist.
      * @param dir The gameserver directory.
      * @throws IOException 
      */
-    private void createProperyFile(String dir) throws IOException {
+    private void createServerDirectory(String dir) throws IOException {
         
         final File directory = new File(dir);
-        final File properties = new File(dir + "server.properties");
-        
-        directory.mkdirs();// Create directory
-        
-        properties.createNewFile();// Create file if not existing
         
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create server directory: " + dir);
+        }
     }
     
     /**
-     * This method copy a new JAR file to the gameserver directory.
+     * This method deploy the gameserver JAR to the gameserver directory.
      * @param dir The gameserver directory
      * @param jar The gameserver JAR
      * @throws IOException 
      */
     private void createJarFile(String dir, String jar) throws IOException {
-        
-        File source;
-        
-        switch (jar) {
-            case "vanilla.jar":
-            {
-                source = new File("servers/jars/vanilla.jar");
-                break;
-            }
-            case "bukkit.jar":
-            {
-                source = new File("servers/jars/bukkit.jar");
-                break;
-            }
-            default:
-            {
-                return;
-            }
-        }
-        
-        final File destination = new File(dir + "mc.jar");
-        FileUtils.copyFile(source, destination);
+        jar_store.deploy(jar, new File(dir + "mc.jar"));
     }
 }
@@ -0,0 +1,227 @@
+package mrev.server.components;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Server_Supervisor class runs the per-server step of a server listener loop as
+ * independent tasks on a work-stealing pool. A server never has more than one task in flight,
+ * if the task of the previous loop is still running the server is skipped, keeping the order of
+ * the steps of each server. A loop waits until all tasks are finished or the deadline passed.
+ * The pool has at least 4 threads (-Dmrev.supervisor.threads), thus a server blocked within
+ * it's step does not hold up the others even on a single processor.
+ *
+ * The per-server step is reading the output of a gameserver, thus the supervisor only runs
+ * tasks in polling mode (-Dmrev.stdout.mode=polling). In the default blocking mode each
+ * gameserver has it's own reader thread, readiness is tracked by the launch scheduler and
+ * exits by the exit watchers, thus no per-server step is left and no task is run. The
+ * supervisor then only serializes the flush of an exited gameserver by runExclusive.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 12:58:40
+ * @version 0.0.1
+ */
+public class Server_Supervisor {
+
+    // -------------------------------------------------------------------------
+
+    private static final int PARALLELISM = Integer.getInteger("mrev.supervisor.threads", Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    private volatile ForkJoinPool pool;
+    private final AtomicIntegerArray busy = new AtomicIntegerArray(65536);
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the supervisor pool.
+     */
+    public Server_Supervisor() {
+        start();
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method starts a new supervisor pool if the last one was shut down, thus a server
+     * listener may be started again after it was stopped.
+     */
+    public synchronized void start() {
+
+        if (pool != null && !pool.isShutdown()) {
+            return;
+        }
+
+        pool = new ForkJoinPool(Math.max(1, PARALLELISM), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Revision-Supervisor-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        }, null, true);
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method runs the task for each port in parallel and waits for them to finish.
+     * @param ports The server ports.
+     * @param task The task to be run for each port.
+     * @param deadline The maximum time to wait, in milliseconds.
+     * @return int The number of servers whose task did not finish in time or was skipped.
+     */
+    public int supervise(int[] ports, final Task task, long deadline) {
+        return supervise(ports, ports.length, task, deadline);
+    }
+
+    /**
+     * This method runs the task for the first ports in parallel and waits for them to finish.
+     * @param ports The server ports.
+     * @param count The number of ports to be supervised.
+     * @param task The task to be run for each port.
+     * @param deadline The maximum time to wait, in milliseconds.
+     * @return int The number of servers whose task did not finish in time or was skipped.
+     */
+    public int supervise(int[] ports, int count, final Task task, long deadline) {
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(count);
+        int skipped = 0;
+
+        for (int i = 0; i < count; i++) {
+
+            final int port = ports[i];
+
+            if (!busy.compareAndSet(port, 0, 1)) {// Previous task still running
+                latch.countDown();
+                skipped++;
+                continue;
+            }
+
+            try {
+
+                pool.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        try {
+
+                            task.run(port);
+
+                        } catch (RuntimeException ex) {
+                            Logger.getLogger(Server_Supervisor.class.getName()).log(Level.SEVERE, "Supervision failed for server on port: " + port, ex);
+
+                        } finally {
+                            busy.set(port, 0);
+                            latch.countDown();
+                        }
+                    }
+                });
+
+            } catch (RejectedExecutionException ex) {// Shut down, the task is never run
+                busy.set(port, 0);
+                latch.countDown();
+                skipped++;
+            }
+        }
+
+        try {
+
+            latch.await(deadline, TimeUnit.MILLISECONDS);
+
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Server_Supervisor.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        return skipped + (int) latch.getCount();
+    }
+
+    /**
+     * This method runs a task for one port in the calling thread, waiting for the task in
+     * flight for the port to finish first. No other task is started for the port meanwhile.
+     * An interrupt while waiting is restored once the task finished, the task is still run.
+     * @param port The server port.
+     * @param task The task to be run.
+     */
+    public void runExclusive(int port, Task task) {
+
+        boolean interrupted = false;
+
+        while (!busy.compareAndSet(port, 0, 1)) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                interrupted = true;// Restored afterwards, sleep would throw at once
+            }
+        }
+
+        try {
+
+            task.run(port);
+
+        } finally {
+
+            busy.set(port, 0);
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * This method verifies if a task is in flight for the given port.
+     * @param port The server port.
+     * @return boolean If a task is running for the port.
+     */
+    public boolean isBusy(int port) {
+        return busy.get(port) != 0;
+    }
+
+    /**
+     * This method shuts down the supervisor pool, waiting for running tasks to finish. The
+     * pool is started again by start().
+     */
+    public void shutdown() {
+
+        final ForkJoinPool stopped = pool;
+
+        stopped.shutdown();
+
+        try {
+
+            stopped.awaitTermination(10, TimeUnit.SECONDS);
+
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Server_Supervisor.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Task interface is the per-server step of a loop.
+     */
+    public interface Task {
+
+        /**
+         * This method runs the step for one server.
+         * @param port The server port.
+         */
+        void run(int port);
+    }
+}
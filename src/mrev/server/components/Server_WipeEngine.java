@@ -0,0 +1,386 @@
+package mrev.server.components;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mrev.Notifier;
+
+/**
+ * The Server_WipeEngine class wipes gameserver directories in the background. A directory
+ * is first renamed to a tombstone in servers/.tombstones, which is instant, thus the wiped
+ * directory is gone at once and may be recreated by a start. The tombstone is then deleted
+ * by a parallel walk of it's file tree, running on -Dmrev.wipe.threads threads (default 2)
+ * and deleting at most -Dmrev.wipe.rate files per second (default 2000, 0 for no limit),
+ * thus a large world does not saturate the disk of the running gameservers.
+ *
+ * Tombstones left by an earlier run, such as when stopped while deleting, are deleted
+ * when the engine is opened.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 18:05:44
+ * @version 0.0.1
+ */
+public class Server_WipeEngine {
+
+    // -------------------------------------------------------------------------
+
+    private static final int THREADS = Integer.getInteger("mrev.wipe.threads", 2);
+    private static final int RATE = Integer.getInteger("mrev.wipe.rate", 2000);// Files per second
+    private static final long PROGRESS_INTERVAL = 5 * 1000;// 5 Seconds
+
+    private final File tombstones;
+    private volatile ForkJoinPool pool = null;
+
+    private final AtomicInteger jobs = new AtomicInteger(0);
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis());
+
+    private volatile boolean stopped = false;
+
+    private long next_permit = System.nanoTime();
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the wipe engine.
+     * @param directory The directory of the gameserver directories.
+     */
+    public Server_WipeEngine(String directory) {
+        this.tombstones = new File(directory, ".tombstones");
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method starts the wipe engine and resumes the deletion of tombstones left by an
+     * earlier run.
+     */
+    public void open() {
+
+        synchronized (this) {
+
+            if (pool == null || pool.isShutdown()) {
+                pool = createPool();
+            }
+
+            stopped = false;
+        }
+
+        final File[] leftovers = tombstones.listFiles();
+
+        if (leftovers == null) {
+            return;
+        }
+
+        for (File tombstone : leftovers) {
+            Notifier.print("Resuming wipe of " + tombstone.getName());
+            delete(tombstone);
+        }
+    }
+
+    /**
+     * This method stops the wipe engine, running deletions are stopped and resumed on next open.
+     */
+    public void close() {
+
+        final ForkJoinPool stopping;
+
+        synchronized (this) {
+
+            stopped = true;
+            stopping = pool;
+        }
+
+        if (stopping == null) {
+            return;
+        }
+
+        stopping.shutdown();
+
+        try {
+
+            stopping.awaitTermination(10, TimeUnit.SECONDS);
+
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Server_WipeEngine.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * This method verifies if any wipes are running.
+     * @return boolean If any wipes are running.
+     */
+    public boolean isPending() {
+        return jobs.get() > 0;
+    }
+
+    /**
+     * This method wipes a directory, renaming it to a tombstone which is deleted in the background.
+     * @param directory The directory to be wiped.
+     * @return boolean If the directory is gone, false if it failed to be renamed.
+     */
+    public boolean wipe(File directory) {
+
+        if (!directory.exists()) {
+            return true;
+        }
+
+        final File tombstone = new File(tombstones, directory.getParentFile().getName() + "-" + directory.getName() + "-" + sequence.incrementAndGet());
+
+        try {
+
+            Files.createDirectories(tombstones.toPath());
+            Files.move(directory.toPath(), tombstone.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException ex) {
+            Logger.getLogger(Server_WipeEngine.class.getName()).log(Level.SEVERE, "Failed to rename " + directory.getPath() + " to a tombstone", ex);
+            return false;
+        }
+
+        delete(tombstone);
+        return true;
+    }
+
+    /**
+     * This method wipes the content of a directory but one entry, renaming the other entries
+     * into a tombstone which is deleted in the background.
+     * @param directory The directory to be wiped.
+     * @param keep The name of the entry to be kept.
+     * @return boolean If the other entries are gone, false if any failed to be renamed.
+     */
+    public boolean wipe(File directory, String keep) {
+
+        final File[] children = directory.listFiles();
+
+        if (children == null) {
+            return true;
+        }
+
+        final File tombstone = new File(tombstones, directory.getParentFile().getName() + "-" + directory.getName() + "-" + sequence.incrementAndGet());
+
+        try {
+
+            Files.createDirectories(tombstone.toPath());
+
+            for (File child : children) {
+                if (!child.getName().equals(keep)) {
+                    Files.move(child.toPath(), new File(tombstone, child.getName()).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+
+        } catch (IOException ex) {
+            Logger.getLogger(Server_WipeEngine.class.getName()).log(Level.SEVERE, "Failed to rename the content of " + directory.getPath() + " to a tombstone", ex);
+            delete(tombstone);
+            return false;
+        }
+
+        delete(tombstone);
+        return true;
+    }
+
+    /**
+     * This method deletes a tombstone in the background, reporting the progress.
+     * @param tombstone The tombstone.
+     */
+    private void delete(final File tombstone) {
+
+        jobs.incrementAndGet();
+
+        final Job job = new Job(tombstone);
+        final ForkJoinPool current = pool;
+
+        if (current == null) {// Not yet opened, resumed on open
+            jobs.decrementAndGet();
+            return;
+        }
+
+        try {
+
+            current.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+
+                        current.invoke(new Walk(job, tombstone));
+
+                        if (stopped) {
+                            Notifier.print(Notifier.Level.WARN, "Stopped wipe of " + tombstone.getName() + " after " + job.files.get() + " files, resumed on restart");
+                        } else {
+                            Notifier.print("Wiped " + tombstone.getName() + " (" + job.files.get() + " files, " + (job.bytes.get() / (1024 * 1024)) + " MB) in " + ((System.currentTimeMillis() - job.started) / 1000) + " seconds");
+                        }
+
+                    } finally {
+                        jobs.decrementAndGet();
+                    }
+                }
+            });
+
+        } catch (RejectedExecutionException ex) {// Closed, resumed on restart
+            jobs.decrementAndGet();
+            Notifier.print(Notifier.Level.WARN, "Stopped wipe of " + tombstone.getName() + " before it started, resumed on restart");
+        }
+    }
+
+    /**
+     * This method creates the pool of a run.
+     * @return ForkJoinPool The pool.
+     */
+    private static ForkJoinPool createPool() {
+
+        return new ForkJoinPool(Math.max(1, THREADS), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Revision-Wipe-" + count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * This method waits until the rate limit permits another file to be deleted.
+     */
+    private void acquire() {
+
+        if (RATE <= 0) {
+            return;
+        }
+
+        final long wait;
+
+        synchronized (this) {
+
+            final long now = System.nanoTime();
+            final long interval = TimeUnit.SECONDS.toNanos(1) / RATE;
+
+            next_permit = Math.max(next_permit, now - TimeUnit.SECONDS.toNanos(1) / 10) + interval;// Bursts of up to 100 ms
+            wait = next_permit - now;
+        }
+
+        if (wait > 0) {
+
+            try {
+
+                TimeUnit.NANOSECONDS.sleep(wait);
+
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Job class holds the progress of one wipe.
+     */
+    private static final class Job {
+
+        private final File tombstone;
+        private final long started = System.currentTimeMillis();
+
+        private final AtomicLong files = new AtomicLong(0);
+        private final AtomicLong bytes = new AtomicLong(0);
+
+        private long reported = started;
+
+        private Job(File tombstone) {
+            this.tombstone = tombstone;
+        }
+
+        private void deleted(long length) {
+
+            files.incrementAndGet();
+            bytes.addAndGet(length);
+
+            final long now = System.currentTimeMillis();
+
+            synchronized (this) {
+
+                if (now - reported < PROGRESS_INTERVAL) {
+                    return;
+                }
+
+                reported = now;
+            }
+
+            if (Notifier.isEnabled(Notifier.Level.DEBUG)) {
+                Notifier.print(Notifier.Level.DEBUG, "Wiping " + tombstone.getName() + ": " + files.get() + " files, " + (bytes.get() / (1024 * 1024)) + " MB deleted ...");
+            }
+        }
+    }
+
+    /**
+     * The Walk class deletes one directory, walking it's subdirectories in parallel.
+     */
+    private final class Walk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final File directory;
+
+        private Walk(Job job, File directory) {
+            this.job = job;
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+
+            final File[] children = directory.listFiles();
+
+            if (children != null) {
+
+                final List<Walk> subdirectories = new ArrayList<>();
+
+                for (File child : children) {
+
+                    if (stopped) {
+                        return;
+                    }
+
+                    if (child.isDirectory() && !Files.isSymbolicLink(child.toPath())) {
+                        subdirectories.add(new Walk(job, child));
+                        continue;
+                    }
+
+                    acquire();
+
+                    final long length = child.length();
+
+                    if (child.delete()) {
+                        job.deleted(length);
+                    } else {
+                        Notifier.print(Notifier.Level.WARN, "Failed to delete " + child.getPath());
+                    }
+                }
+
+                invokeAll(subdirectories);
+            }
+
+            if (!stopped && !directory.delete()) {
+                Notifier.print(Notifier.Level.WARN, "Failed to delete " + directory.getPath());
+            }
+        }
+    }
+}
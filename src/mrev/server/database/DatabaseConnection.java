@@ -0,0 +1,327 @@
+package mrev.server.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mrev.Notifier;
+
+/**
+ * The DatabaseConnection class is a connection borrowed from a DatabasePool. Closing it
+ * returns the connection to the pool instead of closing the underlying connection.
+ *
+ * Prepared statements are cached per connection by their SQL, evicting the least recently
+ * used statement when the cache is full. Closing a cached statement returns it to the cache,
+ * closing it's last ResultSet. All statements are closed when the connection is discarded.
+ * Statements still open when the connection is returned to the pool are reported as leaks.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 13:40:18
+ * @version 0.0.1
+ */
+public class DatabaseConnection implements AutoCloseable {
+
+    // -------------------------------------------------------------------------
+
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("mrev.db.statementCache", 128);
+    private static final boolean TRACE_LEAKS = Boolean.getBoolean("mrev.db.traceLeaks");
+
+    private final DatabasePool pool;
+    private final Connection connection;
+
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+
+            if (size() <= STATEMENT_CACHE_SIZE || eldest.getValue().in_use) {
+                return false;
+            }
+
+            eldest.getValue().closeStatement();
+            return true;
+        }
+    };
+
+    private final ArrayList<CachedStatement> uncached_statements = new ArrayList<>();
+
+    private long released_timestamp = System.currentTimeMillis();
+    private boolean broken = false;
+    private boolean borrowed = false;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which wraps a new pooled connection.
+     * @param pool The owning pool.
+     * @param connection The underlying connection.
+     */
+    DatabaseConnection(DatabasePool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method returns the underlying connection.
+     * @return Connection The underlying connection.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * This method returns a cached prepared statement, preparing it on first use. The statement
+     * shall be closed after use, which returns it to the cache. If the cached statement is already
+     * in use, a new statement is prepared which is closed for real.
+     * @param sql The SQL statement.
+     * @return PreparedStatement The prepared statement.
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+
+        CachedStatement cached = statements.get(sql);
+
+        if (cached != null && cached.in_use) {// Nested use of the same SQL
+            cached = new CachedStatement(sql, connection.prepareStatement(sql), false);
+            uncached_statements.add(cached);
+
+        } else if (cached == null) {
+            cached = new CachedStatement(sql, connection.prepareStatement(sql), true);
+            statements.put(sql, cached);
+        }
+
+        return cached.borrow();
+    }
+
+    /**
+     * This method flags the connection as broken, it's discarded instead of returned to the pool.
+     */
+    public void invalidate() {
+        broken = true;
+    }
+
+    /**
+     * This method returns the connection to the pool.
+     */
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+
+    // -------------------------------------------------------------------------
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    boolean isBorrowed() {
+        return borrowed;
+    }
+
+    void setBorrowed(boolean borrowed) {
+        this.borrowed = borrowed;
+
+        if (!borrowed) {
+            released_timestamp = System.currentTimeMillis();
+        }
+    }
+
+    long getReleasedTimestamp() {
+        return released_timestamp;
+    }
+
+    /**
+     * This method reports and reclaims statements left open by the borrower.
+     * @return int The number of leaked statements.
+     */
+    int reclaimLeakedStatements() {
+
+        int leaks = 0;
+
+        for (CachedStatement cached : statements.values()) {
+            if (cached.in_use) {
+                cached.reportLeak();
+                cached.giveBack();
+                leaks++;
+            }
+        }
+
+        final Iterator<CachedStatement> it = uncached_statements.iterator();
+        while (it.hasNext()) {
+
+            final CachedStatement cached = it.next();
+
+            if (cached.in_use) {
+                cached.reportLeak();
+                cached.closeStatement();
+                leaks++;
+            }
+
+            it.remove();
+        }
+
+        return leaks;
+    }
+
+    /**
+     * This method closes all statements and the underlying connection.
+     */
+    void discard() {
+
+        for (CachedStatement cached : statements.values()) {
+            cached.closeStatement();
+        }
+
+        for (CachedStatement cached : uncached_statements) {
+            cached.closeStatement();
+        }
+
+        statements.clear();
+        uncached_statements.clear();
+
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            // The connection is discarded either way
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The CachedStatement class holds a prepared statement and the proxy handed to the borrower,
+     * whose close returns the statement instead of closing it.
+     */
+    private final class CachedStatement implements InvocationHandler {
+
+        private final String sql;
+        private final PreparedStatement statement;
+        private final boolean cached;
+        private final PreparedStatement proxy;
+
+        private boolean in_use = false;
+        private ResultSet result = null;
+        private Throwable origin = null;
+
+        private CachedStatement(String sql, PreparedStatement statement, boolean cached) {
+            this.sql = sql;
+            this.statement = statement;
+            this.cached = cached;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, this);
+        }
+
+        private PreparedStatement borrow() {
+
+            in_use = true;
+
+            if (TRACE_LEAKS) {
+                origin = new Throwable("Statement prepared here");
+            }
+
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            switch (method.getName()) {
+
+                case "close":
+                {
+                    if (in_use) {
+                        if (cached) {
+                            giveBack();
+                        } else {
+                            in_use = false;
+                            closeStatement();
+                            uncached_statements.remove(this);
+                        }
+                    }
+                    return null;
+                }
+                case "isClosed":
+                {
+                    return !in_use;
+                }
+                default:
+                {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.invoke(statement, args);
+                    }
+
+                    if (!in_use) {
+                        throw new SQLException("Statement already closed: " + sql);
+                    }
+
+                    try {
+
+                        final Object value = method.invoke(statement, args);
+
+                        if (value instanceof ResultSet) {
+                            result = (ResultSet) value;
+                        }
+
+                        return value;
+
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                }
+            }
+        }
+
+        /**
+         * This method returns the statement to the cache, closing it's last ResultSet.
+         */
+        private void giveBack() {
+
+            in_use = false;
+            origin = null;
+
+            try {
+
+                if (result != null) {
+                    result.close();
+                }
+
+                statement.clearParameters();
+                statement.clearBatch();
+
+            } catch (SQLException ex) {
+                // Closed with the connection at the latest
+            }
+
+            result = null;
+        }
+
+        private void closeStatement() {
+
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                // The statement is discarded either way
+            }
+        }
+
+        private void reportLeak() {
+
+            Notifier.print(Notifier.Level.WARN, "Statement left open on a returned database connection: " + sql);
+
+            if (origin != null) {
+                Logger.getLogger(DatabaseConnection.class.getName()).log(Level.WARNING, "Leaked statement", origin);
+            }
+        }
+    }
+}
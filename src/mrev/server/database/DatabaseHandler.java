@@ -1,14 +1,16 @@
 package mrev.server.database;
 
-import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import mrev.Notifier;
 
 /**
  * The DatabaseHandler class handle the MySQL database connections. Access to each
- * database connection is given through references and the connection is automatically
- * retried upon verification.
+ * database is given through a connection pool, with one partition for the main database
+ * and one for the log database. Lost connections are automatically retried in the background.
  *
  * @author Richard Dahlgren
  * @since 2014-jun-02, 21:08:44
@@ -17,149 +19,137 @@ import mrev.Notifier;
 public class DatabaseHandler {
 
     // -------------------------------------------------------------------------
-    
+
     private final String HOST = "localhost";
     private final String PORT = "3306";
     private final String MAIN_DATABASE = "revision";
     private final String LOG_DATABASE = "revision_logs";
     private final String USER = "root";
     private final String PASS = "";
-    
-    private Connection main_conn = null;
-    private Connection log_conn = null;
-    
+
+    private final int MAIN_POOL_SIZE = Integer.getInteger("mrev.db.main.pool", 4);
+    private final int LOG_POOL_SIZE = Integer.getInteger("mrev.db.log.pool", 4);
+
+    private ScheduledExecutorService scheduler = null;
+
+    private DatabasePool main_pool = null;
+    private DatabasePool log_pool = null;
+
+    private final DatabaseLogWriter log_writer = new DatabaseLogWriter();
+
     // -------------------------------------------------------------------------
-    
+
     /**
-     * This method opens the MySQL connection.
+     * This method opens the MySQL connection pools.
      */
     public void open() {
-        
+
         try {
-            
+
             Class.forName("com.mysql.jdbc.Driver");
-            
+
             Notifier.print("MySQL JDBC Driver Registred!");
-            
-            DriverManager.setLoginTimeout(5);
-            main_conn = DriverManager.getConnection("jdbc:mysql://" + HOST + ":" + PORT + "/" + MAIN_DATABASE, USER, PASS);
-            log_conn = DriverManager.getConnection("jdbc:mysql://" + HOST + ":" + PORT + "/" + LOG_DATABASE, USER, PASS);
-            
-            if (main_conn != null && log_conn != null) {
-                Notifier.print("MySQL Connection Established!");
-                
-            } else {
-                Notifier.print("Failed to Establish MySQL Connection!");
-            }
-            
-        } catch (SQLException | ClassNotFoundException ex) {
+
+        } catch (ClassNotFoundException ex) {
             Notifier.print("Failed to Establish MySQL Connection: " + ex.getMessage());
+            return;
+        }
+
+        DriverManager.setLoginTimeout(5);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+
+                final Thread thread = new Thread(r, "Revision-Database");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        main_pool = new DatabasePool("main", "jdbc:mysql://" + HOST + ":" + PORT + "/" + MAIN_DATABASE + "?rewriteBatchedStatements=true", USER, PASS, MAIN_POOL_SIZE, scheduler);
+        log_pool = new DatabasePool("log", "jdbc:mysql://" + HOST + ":" + PORT + "/" + LOG_DATABASE + "?rewriteBatchedStatements=true", USER, PASS, LOG_POOL_SIZE, scheduler);
+
+        final boolean main = main_pool.open();
+        final boolean log = log_pool.open();
+
+        if (main && log) {
+            Notifier.print("MySQL Connection Established!");
+
+        } else {
+            Notifier.print("Failed to Establish MySQL Connection!");
         }
     }
-    
+
     /**
-     * This method closes the MySQL connection.
+     * This method closes the MySQL connection pools.
      */
     public void close() {
-        
+
         Notifier.print("MySQL Connection Closing!");
-        
-        try {
-            if (isMainConnectionOpen()) {
-                main_conn.close();
-            }
-            
-            if (isLogConnectionOpen()) {
-                log_conn.close();
-            }
-        } catch (SQLException ex) {
-            Notifier.print("Failed to Close MySQL Connection: " + ex.getMessage());
+
+        if (main_pool != null) {
+            main_pool.close();
         }
-        
-        Notifier.print("MySQL Connection Closed!");
-    }
-    
-    /**
-     * This method retries to establish a MySQL connection if the previous fails.
-     * @return boolean If a new connection was established.
-     */
-    private boolean retryConnection() {
-        
-        int retries = 0;
-        while (!isConnectionOpen()) {
-            
-            Notifier.print("Retrying Connection ...");
-            
-            close();
-            open();
-            
-            if (retries > 4) {
-                return false;
-            }
-            retries++;
+
+        if (log_pool != null) {
+            log_pool.close();
         }
-        
-        return true;
-    }
-    
-    /**
-     * This method verifies the MySQL connection to the main database.
-     * @return boolean If the MySQL connection is open to the main database.
-     * @throws SQLException
-     */
-    private boolean isMainConnectionOpen() throws SQLException {
-        return main_conn != null && !main_conn.isClosed();
+
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+
+        Notifier.print("MySQL Connection Closed!");
     }
-    
+
     /**
-     * This method verifies the MySQL connection to the log (logging) database.
-     * @return boolean If the MySQL connection is open to the log database.
-     * @throws SQLException 
+     * This method verifies the connection. This never blocks, a lost connection is retried
+     * in the background.
+     * @return boolean If both the main and the log database are available.
      */
-    private boolean isLogConnectionOpen() throws SQLException {
-        return log_conn != null && !log_conn.isClosed();
+    public boolean verifyConnection() {
+        return main_pool != null && main_pool.isAvailable() &&
+               log_pool != null && log_pool.isAvailable();
     }
-    
+
     /**
-     * This method verifies if the MySQL connection is open, tying both isMainConnectionOpen
-     * and isLogConnectionOpen together in one method.
-     * @return boolean If the MySQL connection is open.
+     * This method borrows a connection to the main database. The connection must be closed
+     * to be returned to the pool.
+     * @return DatabaseConnection A connection to the main database.
+     * @throws SQLException If the main database is unavailable.
      */
-    private synchronized boolean isConnectionOpen() {
-        try {
-            return isMainConnectionOpen() && isLogConnectionOpen();
-        } catch (SQLException ex) {
-            Notifier.print("Failed to check connection: " + ex.getMessage());
+    public DatabaseConnection borrowMainConnection() throws SQLException {
+
+        if (main_pool == null) {
+            throw new SQLException("The main database was never opened");
         }
-        return false;
+
+        return main_pool.borrow();
     }
-    
+
     /**
-     * This method verifies the connection. The connection is retried if not open.
-     * @return boolean If the MySQL connection is open.
+     * This method borrows a connection to the log (logging) database. The connection must be
+     * closed to be returned to the pool.
+     * @return DatabaseConnection A connection to the log database.
+     * @throws SQLException If the log database is unavailable.
      */
-    public boolean verifyConnection() {
-        
-        if (isConnectionOpen()) {
-            return true;
+    public DatabaseConnection borrowLogConnection() throws SQLException {
+
+        if (log_pool == null) {
+            throw new SQLException("The log database was never opened");
         }
-        
-        return retryConnection();
-    }
-    
-    /**
-     * This method returns a reference to the MySQL connection for the main database.
-     * @return Connection A reference to the MySQL connection for the main database.
-     */
-    public Connection getMainConnection() {
-        return main_conn;
+
+        return log_pool.borrow();
     }
-    
+
     /**
-     * This method returns a reference to the MySQL connection for the log (logging) database.
-     * @return Connection A reference to the MySQL connection for the log database.
+     * This method returns a reference to the batched log writer of the log (logging) database.
+     * @return DatabaseLogWriter A reference to the log writer.
      */
-    public Connection getLogConnection() {
-        return log_conn;
+    public DatabaseLogWriter getLogWriter() {
+        return log_writer;
     }
 }
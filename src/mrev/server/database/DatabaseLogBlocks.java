@@ -0,0 +1,293 @@
+package mrev.server.database;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import mrev.server.gameserver.components.Gameserver_Spool;
+
+/**
+ * The DatabaseLogBlocks class packs a batch of gameserver log lines into one compressed block,
+ * stored as one row of the server_log_blocks table with the sequence range of the lines. The
+ * console output of a gameserver is very repetitive, thus the lines are compressed by Deflate
+ * with a preset dictionary of the common console phrases, at level -Dmrev.logs.blockLevel
+ * (default 6).
+ *
+ * A block holds the number of lines followed by, for each line, the sequence number and time
+ * as varint deltas of the previous line and the UTF-8 text prefixed by it's length. The first
+ * line is a delta of zero, thus a block is decoded without the columns of it's row. The version
+ * of the dictionary is stored with each block, a changed dictionary gets a new version.
+ *
+ * An instance encodes on one thread at a time, the decoding is thread safe.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 22:14:37
+ * @version 0.0.1
+ */
+public class DatabaseLogBlocks {
+
+    // -------------------------------------------------------------------------
+
+    public static final int DICTIONARY_VERSION = 1;
+
+    private static final int LEVEL = Integer.getInteger("mrev.logs.blockLevel", 6);
+
+    // The most common phrases last, Deflate favours the closest matches
+    private static final byte[] DICTIONARY = (
+            "java.lang.NullPointerException\n\tat net.minecraft.server."
+            + "Stopping server Saving players Saving worlds Closing listening thread "
+            + "Saving chunks for level 'world'/Overworld 'world'/Nether 'world'/The End "
+            + "Preparing level \"world\" Preparing start region for level 0 Preparing spawn area: "
+            + "Default game type: SURVIVAL Generating keypair Starting Minecraft server on *:"
+            + "Starting minecraft server version Loading properties "
+            + "Done (s)! For help, type \"help\" or \"?\" "
+            + "[Server thread/ERROR]: [Server thread/WARN]: [User Authenticator #1/INFO]: "
+            + "Can't keep up! Did the system time change, or is the server overloaded? "
+            + "Running behind, skipping tick(s) ms ticks behind "
+            + "moved too quickly! moved wrongly! "
+            + "issued server command: /"
+            + "lost connection: Disconnected Timed out com.mojang.authlib.GameProfile@"
+            + "UUID of player is [/127.0.0.1:] logged in with entity id at ("
+            + "left the game joined the game <> "
+            + "[Server thread/INFO]: ").getBytes(StandardCharsets.UTF_8);
+
+    private final Deflater deflater = new Deflater(LEVEL);
+    private final ByteArrayOutputStream raw = new ByteArrayOutputStream(64 * 1024);
+    private byte[] output = new byte[16 * 1024];
+
+    private long raw_bytes = 0;
+    private long stored_bytes = 0;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method packs a batch of lines into one compressed block.
+     * @param lines The lines, in sequence order.
+     * @param offset The offset added to the sequence numbers of the lines.
+     * @return byte[] The block.
+     */
+    public byte[] encode(List<Gameserver_Spool.Line> lines, long offset) {
+
+        raw.reset();
+        writeVarint(lines.size());
+
+        long sequence = 0;
+        long timestamp = 0;
+
+        for (Gameserver_Spool.Line line : lines) {
+
+            final byte[] text = line.getText().getBytes(StandardCharsets.UTF_8);
+
+            writeVarint(line.getSequence() + offset - sequence);
+            writeVarint(zigzag(line.getTimestamp() - timestamp));// The clock may be turned back
+            writeVarint(text.length);
+            raw.write(text, 0, text.length);
+
+            sequence = line.getSequence() + offset;
+            timestamp = line.getTimestamp();
+        }
+
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(raw.toByteArray());
+        deflater.finish();
+
+        int length = 0;
+
+        while (!deflater.finished()) {
+
+            if (length == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+
+            length += deflater.deflate(output, length, output.length - length);
+        }
+
+        raw_bytes += raw.size();
+        stored_bytes += length;
+
+        return Arrays.copyOf(output, length);
+    }
+
+    /**
+     * This method returns the number of bytes encoded, before compression.
+     * @return long The number of bytes.
+     */
+    public long getRawBytes() {
+        return raw_bytes;
+    }
+
+    /**
+     * This method returns the number of bytes encoded, after compression.
+     * @return long The number of bytes.
+     */
+    public long getStoredBytes() {
+        return stored_bytes;
+    }
+
+    /**
+     * This method unpacks the lines of a block.
+     * @param block The block.
+     * @param dictionary The version of the dictionary of the block.
+     * @return List The lines, in sequence order.
+     * @throws DataFormatException If the block is corrupt or of an unknown dictionary.
+     */
+    public static List<Gameserver_Spool.Line> decode(byte[] block, int dictionary) throws DataFormatException {
+
+        if (dictionary != DICTIONARY_VERSION) {
+            throw new DataFormatException("Unknown log block dictionary version " + dictionary);
+        }
+
+        final Inflater inflater = new Inflater();
+        final ByteArrayOutputStream inflated = new ByteArrayOutputStream(block.length * 8);
+        final byte[] buffer = new byte[16 * 1024];
+
+        try {
+
+            inflater.setInput(block);
+
+            while (!inflater.finished()) {
+
+                final int length = inflater.inflate(buffer);
+
+                if (length > 0) {
+                    inflated.write(buffer, 0, length);
+                } else if (inflater.needsDictionary()) {
+                    inflater.setDictionary(DICTIONARY);
+                } else if (inflater.needsInput()) {
+                    throw new DataFormatException("Truncated log block");
+                }
+            }
+
+        } finally {
+            inflater.end();
+        }
+
+        final byte[] data = inflated.toByteArray();
+        final int[] position = new int[1];
+
+        final long count = readVarint(data, position);
+
+        if (count < 0 || count > data.length) {// Each line takes at least 3 bytes
+            throw new DataFormatException("Corrupt log block");
+        }
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>((int) count);
+
+        long sequence = 0;
+        long timestamp = 0;
+
+        for (int i = 0; i < count; i++) {
+
+            sequence += readVarint(data, position);
+            timestamp += unzigzag(readVarint(data, position));
+
+            final int length = (int) readVarint(data, position);
+
+            if (length < 0 || length > data.length - position[0]) {
+                throw new DataFormatException("Corrupt log block");
+            }
+
+            lines.add(new Gameserver_Spool.Line(sequence, timestamp, new String(data, position[0], length, StandardCharsets.UTF_8)));
+            position[0] += length;
+        }
+
+        return lines;
+    }
+
+    /**
+     * This method reads the lines of a gameserver within a sequence range from the
+     * server_log_blocks table.
+     * @param conn The log database connection.
+     * @param port The server port.
+     * @param from The first sequence number, inclusive.
+     * @param to The last sequence number, inclusive.
+     * @return List The lines, in sequence order.
+     * @throws SQLException
+     */
+    public static List<Gameserver_Spool.Line> readLines(DatabaseConnection conn, int port, long from, long to) throws SQLException {
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+
+        final PreparedStatement ps = conn.prepareStatement("SELECT first_seq, dictionary, block FROM server_log_blocks "
+                + "WHERE server_port = ? AND first_seq <= ? AND last_seq >= ? ORDER BY first_seq");
+        ps.setInt(1, port);
+        ps.setLong(2, to);
+        ps.setLong(3, from);
+
+        final ResultSet rs = ps.executeQuery();
+
+        try {
+
+            while (rs.next()) {
+
+                try {
+
+                    for (Gameserver_Spool.Line line : decode(rs.getBytes("block"), rs.getInt("dictionary"))) {
+
+                        if (line.getSequence() >= from && line.getSequence() <= to) {
+                            lines.add(line);
+                        }
+                    }
+
+                } catch (DataFormatException ex) {
+                    throw new SQLException("Failed to decode log block " + rs.getLong("first_seq") + " of server on port " + port, ex);
+                }
+            }
+
+        } finally {
+            rs.close();
+            ps.close();
+        }
+
+        return lines;
+    }
+
+    // -------------------------------------------------------------------------
+
+    private void writeVarint(long value) {
+
+        while ((value & ~0x7FL) != 0) {
+            raw.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        raw.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] position) throws DataFormatException {
+
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+
+            if (position[0] >= data.length) {
+                throw new DataFormatException("Corrupt log block");
+            }
+
+            final byte b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+
+            if (b >= 0) {
+                return value;
+            }
+        }
+
+        throw new DataFormatException("Corrupt log block");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,368 @@
+package mrev.server.database;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mrev.Notifier;
+import mrev.ThreadClass;
+import mrev.server.gameserver.components.Gameserver_Spool;
+
+/**
+ * The DatabaseLogShipper class ships the gameserver log lines from the gameserver spools to the
+ * log database in its own thread. Each loop tails every spool from it's checkpoint and writes
+ * a batch of at most -Dmrev.spool.batch lines (default 1000) per gameserver, moving the
+ * checkpoint once the batch was written. A slow or unavailable log database only delays the
+ * shipping, the lines stay in the spools and are shipped once it's available, also after a
+ * restart of the supervisor.
+ *
+ * The offset of a spool shipped for the first time is determined by the last stored line
+ * of the gameserver, thus a spool lost and created again continues the sequence numbers.
+ * A batch colliding with stored lines is shipped again at the sequence numbers following them.
+ *
+ * The retention of the shared log table is applied each -Dmrev.logs.retentionInterval
+ * milliseconds (default 60 seconds), by the log_retention of the gameservers_settings.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 10:52:03
+ * @version 0.0.1
+ */
+public class DatabaseLogShipper extends ThreadClass implements Runnable {
+
+    // -------------------------------------------------------------------------
+
+    private static final int BATCH = Integer.getInteger("mrev.spool.batch", 1000);
+    private static final long METRICS_INTERVAL = 60 * 1000;// 60 Seconds
+    private static final long RETENTION_INTERVAL = Long.getLong("mrev.logs.retentionInterval", 60 * 1000);
+
+    private Thread thread;
+
+    private final DatabaseHandler db;
+
+    private final ArrayList<Gameserver_Spool.Line> lines = new ArrayList<>();
+    private boolean failed = false;
+    private boolean backlogged = false;
+    private boolean table_created = false;
+
+    private long shipped = 0;
+    private long pruned = 0;
+    private long failed_batches = 0;
+
+    private long retention_timestamp = 0;
+
+    private long metrics_timestamp = 0;
+    private long reported_shipped = 0;
+    private long reported_dropped = 0;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize the log shipper.
+     * @param db The database reference.
+     */
+    public DatabaseLogShipper(DatabaseHandler db) {
+        this.db = db;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method create a new thread for the ThreadClass to be executed within.
+     */
+    public void startShipping() {
+        thread = new Thread(this, "Revision-LogShipper");
+        thread.start();
+    }
+
+    /**
+     * This method is called when the new thread is started from the startShipping
+     * function. The ThreadClass is then started within this new thread.
+     */
+    @Override
+    public void run() {
+        super.start();
+    }
+
+    /**
+     * This method joins the log shipper thread.
+     */
+    public void join() {
+
+        if (thread == null) {
+            return;
+        }
+
+        try {
+
+            thread.join(0);
+
+        } catch (InterruptedException ex) {
+            Logger.getLogger(DatabaseLogShipper.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * The DatabaseLogShipper class extends ThreadClass and override the executeBefore
+     * function, which is executed before the thread starts.
+     *
+     * In this thread the executeBefore method opens the spools left with lines not yet shipped.
+     */
+    @Override
+    public void executeBefore() {
+
+        final int recovered = Gameserver_Spool.recover("servers");
+
+        if (recovered > 0) {
+            Notifier.print("Resuming shipping of " + recovered + " spools with lines not yet shipped!");
+        }
+    }
+
+    /**
+     * The DatabaseLogShipper class extends ThreadClass and override the executeWhile
+     * function, which is executed while the thread is running.
+     *
+     * In this thread the executeWhile method tails the spools and writes the
+     * lines to the log database.
+     */
+    @Override
+    public void executeWhile() {
+
+        ship();
+        applyRetention();
+        reportMetrics(false);
+    }
+
+    /**
+     * The DatabaseLogShipper class extends ThreadClass and override the hasPendingWork
+     * function, a spool had more lines than one batch and no batch failed.
+     * @return boolean If lines are waiting to be shipped.
+     */
+    @Override
+    public boolean hasPendingWork() {
+        return backlogged && !failed;
+    }
+
+    /**
+     * The DatabaseLogShipper class extends ThreadClass and override the isIdle
+     * function, no spool is open.
+     * @return boolean If the log shipper is idle.
+     */
+    @Override
+    public boolean isIdle() {
+        return Gameserver_Spool.getSpools().isEmpty();
+    }
+
+    /**
+     * The DatabaseLogShipper class extends ThreadClass and override the executeAfter
+     * function, which is executed before the thread stops.
+     *
+     * In this thread the executeAfter method ships the remaining lines of the spools.
+     */
+    @Override
+    public void executeAfter() {
+
+        for (int tries = 0; tries < 5; tries++) {
+
+            ship();
+
+            if (getPending() == 0) {
+                break;
+            }
+        }
+
+        final long pending = getPending();
+
+        if (pending > 0) {
+            Notifier.print(Notifier.Level.WARN, "Failed to ship " + pending + " log rows to the log database, shipped on restart!");
+        }
+
+        reportMetrics(true);
+    }
+
+    /**
+     * This method ships one batch of each spool. A failed batch is read again from the
+     * checkpoint of the spool on the next loop.
+     */
+    private void ship() {
+
+        failed = false;
+        backlogged = false;
+
+        DatabaseConnection conn = null;
+
+        try {
+
+            for (Gameserver_Spool spool : Gameserver_Spool.getSpools()) {
+
+                if (!spool.isPending()) {
+
+                    if (!spool.isWriting()) {
+                        Gameserver_Spool.release(spool);
+                    }
+
+                    continue;
+                }
+
+                lines.clear();
+
+                if (spool.read(lines, BATCH) == 0) {
+                    continue;
+                }
+
+                if (conn == null) {
+                    conn = db.borrowLogConnection();
+                }
+
+                if (!table_created) {
+                    db.getLogWriter().createTable(conn);
+                    table_created = true;
+                }
+
+                try {
+
+                    if (spool.getOffset() < 0) {// Continue the sequence numbers of the stored lines
+                        spool.setOffset(Math.max(0, db.getLogWriter().getNextSequence(conn, spool.getPort()) - lines.get(0).getSequence()));
+                    }
+
+                    final DatabaseLogWriter.Result result = db.getLogWriter().writeLines(conn, spool.getPort(), spool.getOffset(), lines);
+
+                    if (result != DatabaseLogWriter.Result.WRITTEN) {
+
+                        spool.rewind();
+                        failed_batches++;
+
+                        if (result == DatabaseLogWriter.Result.COLLIDED) {
+                            Notifier.print(Notifier.Level.ERROR, "Log lines of server on port " + spool.getPort() + " collided with stored lines, shipped again after them");
+                            spool.setOffset(-1);
+                            continue;
+                        }
+
+                        failed = true;
+                        return;// Database unavailable, retry next loop
+                    }
+
+                    spool.commit();
+
+                } catch (IOException ex) {
+                    spool.rewind();
+                    failed = true;
+                    Logger.getLogger(DatabaseLogShipper.class.getName()).log(Level.SEVERE, "Failed to write checkpoint of spool of server on port " + spool.getPort(), ex);
+                    continue;
+                }
+
+                shipped += lines.size();
+                backlogged |= spool.isPending();
+            }
+
+        } catch (SQLException ex) {
+
+            failed = true;// Database unavailable, retry next loop
+
+            for (Gameserver_Spool spool : Gameserver_Spool.getSpools()) {
+                spool.rewind();// The batch read before the failure
+            }
+
+        } finally {
+
+            lines.clear();
+
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * This method deletes the log lines exceeding the retention of each gameserver, once each
+     * retention interval. Retried on the next loop if the database is unavailable.
+     */
+    private void applyRetention() {
+
+        final long now = System.currentTimeMillis();
+
+        if (!table_created || failed || now - retention_timestamp < RETENTION_INTERVAL) {
+            return;
+        }
+
+        final Map<Integer, Long> retentions = new HashMap<>();
+
+        try (DatabaseConnection conn = db.borrowMainConnection()) {
+
+            final PreparedStatement ps = conn.prepareStatement("SELECT server_port, log_retention FROM gameservers_settings WHERE log_retention > 0");
+            final ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                retentions.put(rs.getInt("server_port"), rs.getLong("log_retention"));
+            }
+
+            rs.close();
+            ps.close();
+
+        } catch (SQLException ex) {
+            return;// Database unavailable, retry next loop
+        }
+
+        try (DatabaseConnection conn = db.borrowLogConnection()) {
+
+            pruned += db.getLogWriter().applyRetention(conn, retentions);
+
+        } catch (SQLException ex) {
+            Logger.getLogger(DatabaseLogShipper.class.getName()).log(Level.SEVERE, "Failed to apply the log retention", ex);
+        }
+
+        retention_timestamp = now;
+    }
+
+    /**
+     * This method returns the number of lines not yet shipped, of all spools.
+     * @return long The number of lines.
+     */
+    private long getPending() {
+
+        long pending = 0;
+
+        for (Gameserver_Spool spool : Gameserver_Spool.getSpools()) {
+            pending += spool.getPending();
+        }
+
+        return pending;
+    }
+
+    /**
+     * This method prints the shipping metrics when lines were shipped or dropped since the
+     * last report.
+     * @param force If the metrics shall be printed regardless of changes.
+     */
+    private void reportMetrics(boolean force) {
+
+        final long now = System.currentTimeMillis();
+
+        if (!force && now - metrics_timestamp < METRICS_INTERVAL) {
+            return;
+        }
+
+        metrics_timestamp = now;
+
+        final long dropped = Gameserver_Spool.getDropped();
+
+        if (force || shipped != reported_shipped || dropped != reported_dropped) {
+
+            final DatabaseLogBlocks blocks = db.getLogWriter().getBlocks();
+            final Notifier.Level level = dropped != reported_dropped ? Notifier.Level.WARN : force ? Notifier.Level.INFO : Notifier.Level.DEBUG;
+
+            if (Notifier.isEnabled(level)) {
+                Notifier.print(level, "Log shipper: " + shipped + " shipped, " + getPending() + " spooled, "
+                        + (dropped - reported_dropped) + " dropped, " + pruned + " pruned, " + failed_batches + " failed batches"
+                        + (blocks == null || blocks.getStoredBytes() == 0 ? "" : ", " + blocks.getRawBytes() / 1024 + " KB compressed to " + blocks.getStoredBytes() / 1024 + " KB"));
+            }
+        }
+
+        reported_shipped = shipped;
+        reported_dropped = dropped;
+    }
+}
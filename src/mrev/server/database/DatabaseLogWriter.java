@@ -0,0 +1,293 @@
+package mrev.server.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import mrev.server.gameserver.components.Gameserver_Spool;
+
+/**
+ * The DatabaseLogWriter class writes gameserver log lines to the shared server_logs table of
+ * the log database, keyed by the server port and the sequence number of the line, the sequence
+ * number in the spool of the gameserver plus the offset of the spool. A batch shipped again after
+ * a lost acknowledgement is recognized by the last stored sequence number and only the lines
+ * following it are written. Any other duplicate key is a collision, reported instead of ignored.
+ * The table is partitioned by the server port.
+ *
+ * The retention is applied periodically rather than per flush: the lines of each gameserver
+ * older than it's last log_retention lines (gameservers_settings, default -Dmrev.logs.retention
+ * lines, 10000) are deleted by ranges of the primary key, in batches of -Dmrev.logs.retentionBatch
+ * rows (default 10000).
+ *
+ * With -Dmrev.logs.mode=blocks each batch is instead packed into one compressed block by
+ * DatabaseLogBlocks and written as one row of the server_log_blocks table, keyed by the server
+ * port and the first sequence number of the block. A block shipped again after a lost
+ * acknowledgement is written as a new block of the lines following the stored one. The
+ * retention deletes whole blocks, thus up to one block more than the retention is kept.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 10:04:12
+ * @version 0.0.1
+ */
+public class DatabaseLogWriter {
+
+    // -------------------------------------------------------------------------
+
+    private static final long DEFAULT_RETENTION = Long.getLong("mrev.logs.retention", 10000);
+    private static final int RETENTION_BATCH = Integer.getInteger("mrev.logs.retentionBatch", 10000);
+    private static final int RETENTION_BATCHES = 10;// Per gameserver and run, the rest on the next run
+    private static final boolean BLOCKS = "blocks".equalsIgnoreCase(System.getProperty("mrev.logs.mode", "rows"));
+
+    private final DatabaseLogBlocks blocks = BLOCKS ? new DatabaseLogBlocks() : null;
+
+    /**
+     * The Result enum holds the outcomes of writing a batch.
+     */
+    public enum Result {
+        WRITTEN, FAILED, COLLIDED
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method returns the block encoder.
+     * @return DatabaseLogBlocks The block encoder, or null if the lines are stored as rows.
+     */
+    public DatabaseLogBlocks getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * This method creates the shared log table if it doesn't exist.
+     * @param conn The log database connection.
+     * @throws SQLException
+     */
+    public void createTable(DatabaseConnection conn) throws SQLException {
+
+        final PreparedStatement ps = conn.prepareStatement(BLOCKS ? "CREATE TABLE IF NOT EXISTS server_log_blocks ("
+                + "server_port INT NOT NULL, "
+                + "first_seq BIGINT NOT NULL, "
+                + "last_seq BIGINT NOT NULL, "
+                + "first_logged_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), "
+                + "last_logged_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), "
+                + "line_count INT NOT NULL, "
+                + "dictionary SMALLINT NOT NULL, "
+                + "block MEDIUMBLOB NOT NULL, "
+                + "PRIMARY KEY (server_port, first_seq)) "
+                + "PARTITION BY KEY (server_port) PARTITIONS 16"
+                : "CREATE TABLE IF NOT EXISTS server_logs ("
+                + "server_port INT NOT NULL, "
+                + "seq BIGINT NOT NULL, "
+                + "logged_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), "
+                + "log_text TEXT NOT NULL, "
+                + "PRIMARY KEY (server_port, seq)) "
+                + "PARTITION BY KEY (server_port) PARTITIONS 16");
+        ps.executeUpdate();
+        ps.close();
+    }
+
+    /**
+     * This method returns the sequence number following the last stored line of a gameserver.
+     * @param conn The log database connection.
+     * @param port The server port.
+     * @return long The sequence number, 0 if no line is stored.
+     * @throws SQLException
+     */
+    public long getNextSequence(DatabaseConnection conn, int port) throws SQLException {
+
+        final PreparedStatement ps = conn.prepareStatement(BLOCKS
+                ? "SELECT MAX(last_seq) FROM server_log_blocks WHERE server_port = ?"
+                : "SELECT MAX(seq) FROM server_logs WHERE server_port = ?");
+        ps.setInt(1, port);
+
+        final ResultSet rs = ps.executeQuery();
+        final long next = rs.next() && rs.getObject(1) != null ? rs.getLong(1) + 1 : 0;
+
+        rs.close();
+        ps.close();
+
+        return next;
+    }
+
+    /**
+     * This method writes a batch of log lines of a gameserver to the shared log table.
+     * @param conn The log database connection.
+     * @param port The server port.
+     * @param offset The offset added to the sequence numbers of the lines.
+     * @param lines The lines to be written, in sequence order.
+     * @return Result WRITTEN if written, FAILED if the database is unavailable and COLLIDED
+     * if other lines are stored by the same sequence numbers.
+     */
+    public Result writeLines(DatabaseConnection conn, int port, long offset, List<Gameserver_Spool.Line> lines) {
+
+        if (lines.isEmpty()) {
+            return Result.WRITTEN;
+        }
+
+        try {
+
+            insert(conn, port, offset, lines);
+            return Result.WRITTEN;
+
+        } catch (SQLException ex) {
+
+            if (!isDuplicate(ex)) {
+                conn.invalidate();
+                return Result.FAILED;
+            }
+        }
+
+        try {
+
+            // Written before if the stored lines end within the batch, the acknowledgement was lost
+            final long next = getNextSequence(conn, port);
+            final long first = lines.get(0).getSequence() + offset;
+            final long last = lines.get(lines.size() - 1).getSequence() + offset;
+
+            if (next <= first || next > last + 1) {
+                return Result.COLLIDED;
+            }
+
+            if (next <= last) {
+                insert(conn, port, offset, lines.subList((int) (next - first), lines.size()));
+            }
+
+            return Result.WRITTEN;
+
+        } catch (SQLException ex) {
+
+            if (!isDuplicate(ex)) {
+                conn.invalidate();
+            }
+
+            return Result.FAILED;
+        }
+    }
+
+    /**
+     * This method inserts a batch of log lines, as rows or as one block.
+     * @param conn The log database connection.
+     * @param port The server port.
+     * @param offset The offset added to the sequence numbers of the lines.
+     * @param lines The lines to be written, in sequence order.
+     * @throws SQLException
+     */
+    private void insert(DatabaseConnection conn, int port, long offset, List<Gameserver_Spool.Line> lines) throws SQLException {
+
+        if (BLOCKS) {
+
+            final Gameserver_Spool.Line first = lines.get(0);
+            final Gameserver_Spool.Line last = lines.get(lines.size() - 1);
+
+            final PreparedStatement ps = conn.prepareStatement("INSERT INTO server_log_blocks "
+                    + "(server_port, first_seq, last_seq, first_logged_at, last_logged_at, line_count, dictionary, block) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+
+            ps.setInt(1, port);
+            ps.setLong(2, first.getSequence() + offset);
+            ps.setLong(3, last.getSequence() + offset);
+            ps.setTimestamp(4, new Timestamp(first.getTimestamp()));
+            ps.setTimestamp(5, new Timestamp(last.getTimestamp()));
+            ps.setInt(6, lines.size());
+            ps.setInt(7, DatabaseLogBlocks.DICTIONARY_VERSION);
+            ps.setBytes(8, blocks.encode(lines, offset));
+            ps.executeUpdate();
+            ps.close();
+
+            return;
+        }
+
+        final PreparedStatement ps = conn.prepareStatement("INSERT INTO server_logs (server_port, seq, logged_at, log_text) VALUES (?, ?, ?, ?)");
+
+        for (Gameserver_Spool.Line line : lines) {
+            ps.setInt(1, port);
+            ps.setLong(2, line.getSequence() + offset);
+            ps.setTimestamp(3, new Timestamp(line.getTimestamp()));
+            ps.setString(4, line.getText());
+            ps.addBatch();
+        }
+
+        ps.executeBatch();
+        ps.close();
+    }
+
+    /**
+     * This method verifies if an exception was caused by a duplicate key.
+     * @param ex The exception.
+     * @return boolean If a key was duplicate.
+     */
+    private boolean isDuplicate(SQLException ex) {
+
+        for (SQLException next = ex; next != null; next = next.getNextException()) {
+            if (next.getErrorCode() == 1062 || "23000".equals(next.getSQLState())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method deletes the lines exceeding the retention of each gameserver.
+     * @param conn The log database connection.
+     * @param retentions The retention of the gameservers, in lines, by port. The default retention
+     * applies to the others.
+     * @return long The number of deleted rows, lines or blocks.
+     * @throws SQLException
+     */
+    public long applyRetention(DatabaseConnection conn, Map<Integer, Long> retentions) throws SQLException {
+
+        final List<long[]> cutoffs = new ArrayList<>();
+
+        // One index lookup per gameserver, the primary key starts with the port
+        final PreparedStatement ps1 = conn.prepareStatement(BLOCKS
+                ? "SELECT server_port, MIN(first_seq), MAX(last_seq) FROM server_log_blocks GROUP BY server_port"
+                : "SELECT server_port, MIN(seq), MAX(seq) FROM server_logs GROUP BY server_port");
+        final ResultSet rs1 = ps1.executeQuery();
+
+        while (rs1.next()) {
+
+            final int port = rs1.getInt(1);
+            final Long retention = retentions.get(port);
+            final long cutoff = rs1.getLong(3) + 1 - (retention == null || retention <= 0 ? DEFAULT_RETENTION : retention);
+
+            if (rs1.getLong(2) < cutoff) {
+                cutoffs.add(new long[] { port, cutoff });
+            }
+        }
+
+        rs1.close();
+        ps1.close();
+
+        long deleted = 0;
+
+        // A block is deleted once it's last line is beyond the retention
+        final PreparedStatement ps2 = conn.prepareStatement(BLOCKS
+                ? "DELETE FROM server_log_blocks WHERE server_port = ? AND last_seq < ? ORDER BY first_seq LIMIT ?"
+                : "DELETE FROM server_logs WHERE server_port = ? AND seq < ? LIMIT ?");
+
+        for (long[] cutoff : cutoffs) {
+
+            for (int batch = 0; batch < RETENTION_BATCHES; batch++) {
+
+                ps2.setInt(1, (int) cutoff[0]);
+                ps2.setLong(2, cutoff[1]);
+                ps2.setInt(3, RETENTION_BATCH);
+
+                final int rows = ps2.executeUpdate();
+                deleted += rows;
+
+                if (rows < RETENTION_BATCH) {
+                    break;
+                }
+            }
+        }
+
+        ps2.close();
+
+        return deleted;
+    }
+}
@@ -0,0 +1,362 @@
+package mrev.server.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import mrev.Notifier;
+
+/**
+ * The DatabasePool class is a small pool of connections to one MySQL database. Connections are
+ * validated when borrowed after being idle, evicted when idle for too long and a lost database
+ * is reconnected in the background with exponential backoff. While the database is unavailable
+ * borrowing fails at once, thus a database outage never blocks the caller.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 13:52:44
+ * @version 0.0.1
+ */
+public class DatabasePool {
+
+    // -------------------------------------------------------------------------
+
+    private static final int VALIDATION_TIMEOUT = 2;// Seconds
+    private static final long VALIDATION_IDLE_TIME = Long.getLong("mrev.db.validationIdle", 1000);
+    private static final long IDLE_TIMEOUT = Long.getLong("mrev.db.idleTimeout", 60 * 1000);
+    private static final long BORROW_TIMEOUT = 5 * 1000;// 5 Seconds
+    private static final long MIN_BACKOFF = 1000;// 1 Second
+    private static final long MAX_BACKOFF = 60 * 1000;// 60 Seconds
+
+    private final String name;
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final int size;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ArrayDeque<DatabaseConnection> idle = new ArrayDeque<>();
+    private int open = 0;
+
+    private volatile boolean available = false;
+    private boolean closed = false;
+
+    private long backoff = MIN_BACKOFF;
+    private ScheduledFuture<?> reconnect = null;
+    private ScheduledFuture<?> eviction = null;
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which initialize a pool partition.
+     * @param name The partition name, used in notifications.
+     * @param url The JDBC url.
+     * @param user The database user.
+     * @param pass The database password.
+     * @param size The maximum number of connections.
+     * @param scheduler The scheduler running reconnects and evictions.
+     */
+    public DatabasePool(String name, String url, String user, String pass, int size, ScheduledExecutorService scheduler) {
+        this.name = name;
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.size = Math.max(1, size);
+        this.scheduler = scheduler;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method opens the first connection of the pool. If it fails, reconnects are
+     * scheduled in the background.
+     * @return boolean If the connection was established.
+     */
+    public boolean open() {
+
+        synchronized (this) {
+            closed = false;
+        }
+
+        final boolean connected = connect();
+
+        synchronized (this) {
+
+            if (eviction == null) {
+                eviction = scheduler.scheduleWithFixedDelay(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        evictIdle();
+                    }
+                }, IDLE_TIMEOUT, IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return connected;
+    }
+
+    /**
+     * This method closes all connections and stops reconnects and evictions. Borrowed connections
+     * are closed when returned.
+     */
+    public synchronized void close() {
+
+        closed = true;
+        available = false;
+
+        if (reconnect != null) {
+            reconnect.cancel(false);
+            reconnect = null;
+        }
+
+        if (eviction != null) {
+            eviction.cancel(false);
+            eviction = null;
+        }
+
+        for (DatabaseConnection conn : idle) {
+            conn.discard();
+            open--;
+        }
+
+        idle.clear();
+        notifyAll();
+    }
+
+    /**
+     * This method verifies if the database is believed to be available.
+     * @return boolean If the database is available.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * This method borrows a connection from the pool. The connection must be closed to be returned.
+     * @return DatabaseConnection The borrowed connection.
+     * @throws SQLException If the database is unavailable or no connection was returned in time.
+     */
+    public DatabaseConnection borrow() throws SQLException {
+
+        final long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+
+        while (true) {
+
+            DatabaseConnection conn = null;
+            boolean create = false;
+
+            synchronized (this) {
+
+                while (true) {
+
+                    if (closed || !available) {
+                        throw new SQLException("The " + name + " database is unavailable");
+                    }
+
+                    conn = idle.pollFirst();
+
+                    if (conn != null) {
+                        break;
+                    }
+
+                    if (open < size) {
+                        open++;
+                        create = true;
+                        break;
+                    }
+
+                    final long remaining = deadline - System.currentTimeMillis();
+
+                    if (remaining <= 0) {
+                        throw new SQLException("Timed out waiting for a " + name + " database connection");
+                    }
+
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for a " + name + " database connection", ex);
+                    }
+                }
+            }
+
+            if (create) {
+
+                try {
+
+                    conn = new DatabaseConnection(this, DriverManager.getConnection(url, user, pass));
+
+                } catch (SQLException ex) {
+
+                    synchronized (this) {
+                        open--;
+                        notifyAll();
+                    }
+
+                    lost(ex);
+                    throw ex;
+                }
+
+            } else if (System.currentTimeMillis() - conn.getReleasedTimestamp() > VALIDATION_IDLE_TIME && !isValid(conn)) {
+
+                conn.discard();
+
+                synchronized (this) {
+                    open--;
+                }
+
+                continue;// Try the next idle connection or create a new one
+            }
+
+            conn.setBorrowed(true);
+            return conn;
+        }
+    }
+
+    /**
+     * This method returns a borrowed connection to the pool.
+     * @param conn The borrowed connection.
+     */
+    synchronized void release(DatabaseConnection conn) {
+
+        if (!conn.isBorrowed()) {
+            return;// Already released
+        }
+
+        conn.setBorrowed(false);
+        conn.reclaimLeakedStatements();
+
+        if (closed || conn.isBroken()) {
+            conn.discard();
+            open--;
+
+        } else {
+            idle.addFirst(conn);// Most recently used first, the least used ones are evicted
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * This method validates a connection.
+     * @param conn The connection.
+     * @return boolean If the connection is valid.
+     */
+    private boolean isValid(DatabaseConnection conn) {
+
+        try {
+            return conn.getConnection().isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * This method establishes a first connection, marking the database as available.
+     * @return boolean If the connection was established.
+     */
+    private boolean connect() {
+
+        final Connection connection;
+
+        try {
+
+            connection = DriverManager.getConnection(url, user, pass);
+
+        } catch (SQLException ex) {
+            lost(ex);
+            return false;
+        }
+
+        synchronized (this) {
+
+            if (closed) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    // Closing either way
+                }
+                return false;
+            }
+
+            idle.addFirst(new DatabaseConnection(this, connection));
+            open++;
+
+            available = true;
+            backoff = MIN_BACKOFF;
+            reconnect = null;
+
+            notifyAll();
+        }
+
+        return true;
+    }
+
+    /**
+     * This method marks the database as unavailable and schedules a reconnect.
+     * @param ex The cause.
+     */
+    private synchronized void lost(SQLException ex) {
+
+        if (closed || reconnect != null) {
+            return;
+        }
+
+        if (available) {
+            Notifier.print(Notifier.Level.WARN, "Lost the " + name + " MySQL connection: " + ex.getMessage());
+        }
+
+        available = false;
+
+        for (DatabaseConnection conn : idle) {// The idle connections are most likely broken too
+            conn.discard();
+            open--;
+        }
+
+        idle.clear();
+        notifyAll();
+
+        Notifier.print("Retrying the " + name + " MySQL connection in " + (backoff / 1000) + " seconds ...");
+
+        reconnect = scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+
+                synchronized (DatabasePool.this) {
+                    reconnect = null;
+                    backoff = Math.min(MAX_BACKOFF, backoff * 2);
+                }
+
+                if (connect()) {
+                    Notifier.print("Reestablished the " + name + " MySQL connection!");
+                }
+            }
+        }, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method closes connections which have been idle for too long, keeping one.
+     */
+    private synchronized void evictIdle() {
+
+        final long now = System.currentTimeMillis();
+        final Iterator<DatabaseConnection> it = idle.descendingIterator();
+
+        while (it.hasNext() && idle.size() > 1) {
+
+            final DatabaseConnection conn = it.next();
+
+            if (now - conn.getReleasedTimestamp() > IDLE_TIMEOUT) {
+                it.remove();
+                conn.discard();
+                open--;
+            }
+        }
+    }
+}
@@ -20,7 +20,7 @@ public class Gameserver {
     private final Gameserver_Logger logger;
     private final Gameserver_IoStream stream;
     
-    private long stopped_timestamp = 0;
+    private volatile long stopped_timestamp = 0;
     
     // -------------------------------------------------------------------------
     
@@ -39,6 +39,9 @@ public class Gameserver {
         
         stream = new Gameserver_IoStream(p);
         
+        logger.openSpool(port);
+        logger.startOutStreamReader(port, stream);
+        
     }
     
     // -------------------------------------------------------------------------
@@ -68,23 +71,17 @@ public class Gameserver {
     }
     
     /**
-     * This method stops the server. When the server is first requested to stop
-     * it's stopped by command. If the command fails to stop the server within 20 seconds the process
-     * is then forced to be destroyed.
+     * This method stops the server by command, once. A server which fails to stop
+     * by command is escalated by Server_Shutdown.
      * @param port The Gameserver port
      */
-    public void sendStop(int port) {
+    public synchronized void sendStop(int port) {
         
         if (stopped_timestamp == 0) {
             stream.send("stop");
             stopped_timestamp = System.currentTimeMillis();
             
             Notifier.print("Server on port " + port + " was asked to stop!");
-            
-        } else if (System.currentTimeMillis() - stopped_timestamp > (20 * 1000)) {// 20 Seconds
-            process.destroy();
-            
-            Notifier.print("Server on port " + port + " was forced to stop!");
         }
     }
 }
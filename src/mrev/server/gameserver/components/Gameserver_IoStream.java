@@ -66,7 +66,7 @@ public class Gameserver_IoStream {
      * @param row The message to be sent.
      * @return boolean If the message was successfully sent.
      */
-    public boolean send(String row) {
+    public synchronized boolean send(String row) {
         
         try {
                 
@@ -1,15 +1,16 @@
 package mrev.server.gameserver.components;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import mrev.Notifier;
-import mrev.server.database.DatabaseHandler;
+import mrev.ThreadClass;
 
 /**
- * The Gameserver_Logger class handle the temporary logging of each gameserver and
- * it's transfer to the primary database.
+ * The Gameserver_Logger class handle the logging of each gameserver. Each line of the
+ * gameserver outputstream is appended to the spool of the gameserver, which is tailed
+ * by the log shipper, thus no line is lost while the database is unavailable. Each line is
+ * also passed to the line listener, if set, such as the console tail server.
  *
  * @author Richard Dahlgren
  * @since 2014-jun-03, 20:26:31
@@ -19,66 +20,127 @@ public class Gameserver_Logger {
     
     // -------------------------------------------------------------------------
     
-    private final LinkedList<String> temporaryLog = new LinkedList<>();
+    private static final boolean POLLING_READER = "polling".equals(System.getProperty("mrev.stdout.mode", "blocking"));
+    
+    private static volatile LineListener line_listener = null;
+    
+    private int port = 0;
+    private Gameserver_Spool spool = null;
+    private long lost = 0;
+    private volatile boolean ready = false;
+    
+    private Thread reader = null;
 
     // -------------------------------------------------------------------------
     
     /**
-     * This method verifies if the temporary gameserver log is empty.
-     * @return boolean If the gameserver log is empty.
+     * This method sets the listener passed each line of all gameservers.
+     * @param listener The line listener, or null.
+     */
+    public static void setLineListener(LineListener listener) {
+        line_listener = listener;
+    }
+    
+    /**
+     * This method verifies if the gameserver reported that it's done loading, by the
+     * "Done (" line written to it's outputstream.
+     * @return boolean If the gameserver is done loading.
      */
-    public boolean isTemporaryLogEmpty() {
-        return temporaryLog.isEmpty();
+    public boolean isReady() {
+        return ready;
     }
     
     /**
-     * This method returns a reference to the temporary gameserver log.
-     * @return LinkedList<> The gameserver log.
+     * This method verifies if the gameserver outputstreams are read by the supervisor, which
+     * is the case in polling mode only. Otherwise each gameserver has it's own blocking reader.
+     * @return boolean If the outputstreams are polled.
      */
-    public LinkedList<String> getTemporaryLog() {
-        return temporaryLog;
+    public static boolean isPolling() {
+        return POLLING_READER;
     }
     
     /**
-     * This method writes data from the gameserver outputstream to the temporary log.
+     * This method verifies if the gameserver outputstream shall be read by the supervisor,
+     * which is the case in polling mode while output is waiting.
      * @param stream The IoStream of the gameserver.
+     * @return boolean If the gameserver log shall be updated.
+     */
+    public boolean isUpdatePending(Gameserver_IoStream stream) {
+        return POLLING_READER && stream.isOutStreamReady();
+    }
+    
+    /**
+     * This method opens the spool of the gameserver, receiving the lines of it's outputstream.
+     * Lines are lost if the spool failed to be opened.
+     * @param port The server port.
      */
-    public void writeOutStreamToTemporaryLog(Gameserver_IoStream stream) {
+    public void openSpool(int port) {
         
-        int lines = 0;
-        while (stream.isOutStreamReady()) {
-            
-            final String line = stream.readOutStreamLine();
-            if (line != null) {
-                addToTemporary(line);
-            }
+        this.port = port;
+        
+        try {
             
-            if (lines > 19) {
-                break;
-            }
+            spool = Gameserver_Spool.open(port, true);
             
-            lines++;
+        } catch (IOException ex) {
+            Logger.getLogger(Gameserver_Logger.class.getName()).log(Level.SEVERE, "Failed to open spool of server on port " + port + ", it's output is not logged", ex);
         }
     }
     
     /**
-     * This method writes data from the temporary gameserver log to the primary database.
+     * This method starts a blocking reader, which appends each line of the gameserver
+     * outputstream to the spool as soon as it arrives. A virtual thread is used
+     * when supported by the JVM. No reader is started in polling mode (-Dmrev.stdout.mode=polling),
+     * the outputstream is then read by readOutStream. The spool is detached by the reader
+     * once the end of the outputstream was reached.
      * @param port The server port.
-     * @param db The database reference
+     * @param stream The IoStream of the gameserver.
      */
-    public void writeTemporaryLogToDb(int port, DatabaseHandler db) {
+    public void startOutStreamReader(int port, final Gameserver_IoStream stream) {
         
-        if (temporaryLog.isEmpty()) {
+        if (POLLING_READER) {
             return;
         }
         
-        final LinkedList<String> list = (LinkedList) temporaryLog.clone();
+        reader = ThreadClass.createThread(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    
+                    String line;
+                    while ((line = stream.readOutStreamLine()) != null) {
+                        addLine(line);
+                    }
+                    
+                } finally {
+                    detachSpool();
+                }
+            }
+        }, "Revision-Reader-" + port, true);
+        
+        reader.start();
+    }
+    
+    /**
+     * This method appends data from the gameserver outputstream to the spool. Only used
+     * in polling mode, a blocking reader appends to the spool by itself.
+     * @param stream The IoStream of the gameserver.
+     */
+    public void readOutStream(Gameserver_IoStream stream) {
+        
+        if (!POLLING_READER) {
+            return;// Read by the blocking reader, possibly not yet started
+        }
+        
         int lines = 0;
-
-        for (String line : list) {
+        while (stream.isOutStreamReady()) {
             
-            insertToServerLog(port, line, db);
-            temporaryLog.remove(line);
+            final String line = stream.readOutStreamLine();
+            if (line != null) {
+                addLine(line);
+            }
             
             if (lines > 19) {
                 break;
@@ -89,58 +151,95 @@ public class Gameserver_Logger {
     }
     
     /**
-     * This method writes log data to the primary database and remove rows if the number of rows exceed 100.
-     * @param port The server port.
-     * @param text The data to be written.
-     * @param db The database reference.
-     * @return boolean If the operation was successfull.
+     * This method flushes the remaining output of an exited gameserver to the spool. The
+     * outputstream is read to it's end, waiting at most the timeout for the reader. The
+     * spool is shipped by the log shipper afterwards.
+     * @param stream The IoStream of the gameserver.
+     * @param timeout The maximum time to wait for the reader, in milliseconds.
      */
-    private boolean insertToServerLog(int port, String text, DatabaseHandler db) {
+    public void flush(Gameserver_IoStream stream, long timeout) {
         
-        try {
-            
-            final PreparedStatement ps1 = db.getLogConnection().prepareStatement("INSERT INTO server_" + port + " (log_text) VALUES (?)");
-            final PreparedStatement ps2 = db.getLogConnection().prepareStatement("SELECT id FROM server_" + port + " WHERE id = (SELECT MAX(id) - 100 FROM server_" + port + ")");
-            final PreparedStatement ps3 = db.getLogConnection().prepareStatement("DELETE FROM server_" + port + " WHERE id < ?");
+        if (reader != null) {
             
-            ps1.setString(1, text);
-            ps1.executeUpdate();
-            ps1.close();
+            try {
+                reader.join(timeout);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
             
-            final ResultSet rs = ps2.executeQuery();
+            return;// Detached by the reader
+        }
+        
+        String line;
+        while ((line = stream.readOutStreamLine()) != null) {
+            addLine(line);
+        }
+        
+        detachSpool();
+    }
+    
+    /**
+     * This method appends a line to the spool.
+     * @param row The row to be added.
+     */
+    private void addLine(String row) {
+        
+        if (!ready && row.contains("Done (")) {
+            ready = true;
+        }
+        
+        long sequence = -1;// Not spooled
+        
+        if (spool != null) {
             
-            if (rs.next()) {
+            try {
                 
-                final int row_id = rs.getInt("id");
+                sequence = spool.append(row);
                 
-                if (row_id > 0) {
-                    ps3.setInt(1, row_id);
-                    ps3.executeUpdate();
-                    ps3.close();
-                }
+            } catch (IOException ex) {
                 
+                if (lost++ == 0) {
+                    Logger.getLogger(Gameserver_Logger.class.getName()).log(Level.SEVERE, "Failed to append to spool of server on port " + spool.getPort(), ex);
+                }
             }
-            
-            rs.close();
-            ps2.close();
-            
-        } catch (SQLException ex) {
-            Notifier.print("Failed to insert  \"" + text + "\" to server log on port " + port + ": " + ex.getMessage());
-            return false;
         }
-        return true;
+        
+        final LineListener listener = line_listener;
+        
+        if (listener != null) {
+            listener.line(port, sequence, row);
+        }
     }
     
     /**
-     * This method adds a row to the temporary gameserver log.
-     * @param row The row to be added.
+     * This method detaches the spool once the outputstream reached it's end.
      */
-    private void addToTemporary(String row) {
+    private void detachSpool() {
         
-        temporaryLog.add(row);
+        if (spool == null) {
+            return;
+        }
+        
+        spool.detach();
         
-        if (temporaryLog.size() > 100) {// In case of database failure, no need to save over 100 rows
-            temporaryLog.poll();
+        if (lost > 0) {
+            Notifier.print(Notifier.Level.WARN, "Lost " + lost + " lines of server on port " + spool.getPort() + ", failed to be spooled!");
         }
     }
+    
+    // -------------------------------------------------------------------------
+    
+    /**
+     * The LineListener interface is passed each line of the gameserver outputstreams.
+     */
+    public interface LineListener {
+        
+        /**
+         * This method is called from the thread reading the outputstream, thus it shall never block.
+         * @param port The server port.
+         * @param sequence The sequence number of the line in the spool, or -1 if not spooled.
+         * @param line The line.
+         */
+        void line(int port, long sequence, String line);
+    }
 }
@@ -3,6 +3,7 @@ package mrev.server.gameserver.components;
 import java.io.File;
 import java.io.IOException;
 import mrev.Notifier;
+import mrev.ThreadClass;
 
 /**
  * The Gameserver_Process class handle the gameserver process.
@@ -65,6 +66,67 @@ public class Gameserver_Process {
         return process;
     }
     
+    /**
+     * This method starts a watcher which waits for the process to exit and then runs the
+     * callback, as soon as the process exited. A virtual thread is used when supported by the JVM.
+     * @param port The server port.
+     * @param callback The callback to be run when the process exited.
+     */
+    public void watchExit(int port, final Runnable callback) {
+        
+        final Process watched = process;
+        
+        if (watched == null) {
+            return;
+        }
+        
+        ThreadClass.createThread(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                while (true) {
+                    try {
+                        watched.waitFor();
+                        break;
+                    } catch (InterruptedException ex) {
+                        // Wait until exited either way
+                    }
+                }
+                
+                callback.run();
+            }
+        }, "Revision-Exit-" + port, true).start();
+    }
+    
+    /**
+     * This method returns the exit value of the exited process.
+     * @return int The exit value, or -1 if the process never started.
+     */
+    public int getExitValue() {
+        return process == null ? -1 : process.exitValue();
+    }
+    
+    /**
+     * This method terminates the gameserver process (SIGTERM).
+     */
+    public void terminate() {
+        
+        if (process != null) {
+            process.destroy();
+        }
+    }
+    
+    /**
+     * This method kills the gameserver process (SIGKILL).
+     */
+    public void kill() {
+        
+        if (process != null) {
+            process.destroyForcibly();
+        }
+    }
+    
     /**
      * This method destroy the gameserver process. If the process already has been
      * destroyed once it will be forced to be destroyed.
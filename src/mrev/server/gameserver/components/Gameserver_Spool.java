@@ -0,0 +1,1018 @@
+package mrev.server.gameserver.components;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mrev.Notifier;
+
+/**
+ * The Gameserver_Spool class is the append-only store of the console lines of a gameserver,
+ * in servers/server_<port>/spool. Each line is given a sequence number and appended to a
+ * memory mapped segment file of -Dmrev.spool.segmentSize bytes (default 8 MB), thus an appended
+ * line survives a crash of the supervisor. A full segment is sealed and the next one started,
+ * the oldest segments are deleted once the spool exceeds -Dmrev.spool.maxBytes (default 256 MB).
+ *
+ * Each segment is named by the sequence number of it's first line. It's index maps every
+ * 64th sequence number to the offset of the line, kept in memory and written next to the
+ * segment once sealed, thus a sealed segment is not scanned when the spool is opened again.
+ *
+ * The log shipper tails the spool from the checkpoint, the sequence number of the first line
+ * not yet shipped, which is written after each shipped batch. A failed batch is read again
+ * from the checkpoint, and the lines not shipped before a restart are shipped after it. The
+ * checkpoint also holds the offset added to the sequence numbers when shipped, determined by
+ * the log shipper when a new spool is first shipped, thus the shipped sequence numbers never
+ * go back when a spool was lost.
+ *
+ * The last -Dmrev.logs.tail lines (default 100) are also kept in memory, thus the recent
+ * console is read without the database. The tail of a spool opened again is read from it's
+ * segments.
+ *
+ * A record is the total record length (int), the sequence number (long), the time the line was
+ * appended (long) and the UTF-8 line. The length is written last, thus a record is complete
+ * once it's length is non-zero.
+ *
+ * A segment is unmapped as soon as it's deleted or the spool is closed, rather than when
+ * collected, since a mapped file can neither be deleted nor moved on Windows. The segments
+ * are read under their lock, thus an unmapped segment is never read. An attached appender
+ * continues the last segment while it has room.
+ *
+ * One thread appends at a time, the gameserver reader, and one thread tails, the log shipper.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 20:42:19
+ * @version 0.0.1
+ */
+public class Gameserver_Spool {
+
+    // -------------------------------------------------------------------------
+
+    public static final String DIRECTORY = "spool";
+
+    private static final int SEGMENT_SIZE = (int) Math.min(Integer.MAX_VALUE, Math.max(64 * 1024, Long.getLong("mrev.spool.segmentSize", 8 * 1024 * 1024)));
+    private static final long MAX_BYTES = Long.getLong("mrev.spool.maxBytes", 256 * 1024 * 1024);
+    private static final int MAX_LINE = 32 * 1024;// Bytes, longer lines are truncated
+    private static final int HEADER = 20;// Length, sequence number and time
+    private static final int TAIL = Math.max(1, Integer.getInteger("mrev.logs.tail", 100));
+    private static final int INDEX_INTERVAL = 64;
+
+    private static final ConcurrentHashMap<Integer, Gameserver_Spool> spools = new ConcurrentHashMap<>();
+    private static final AtomicLong dropped = new AtomicLong(0);
+
+    private final int port;
+    private final File directory;
+    private final RandomAccessFile checkpoint;
+
+    private final List<Segment> segments = new ArrayList<>();// Guarded by this
+
+    private volatile long next_sequence;// Next sequence to be appended
+    private volatile long shipped;// Next sequence to be shipped, the checkpoint
+    private volatile long offset;// Added to the shipped sequence numbers, -1 until determined
+    private volatile boolean writing = false;
+    private volatile boolean closed = false;
+
+    private Segment current = null;// Appender only
+
+    private final Cursor cursor = new Cursor();// Tailer only
+
+    private final String[] tail = new String[TAIL];// Guarded by tail
+    private long tail_count = -1;// Lines added to the tail, -1 until read from the segments
+    private long tail_next = 0;// Sequence following the last line of the tail
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This is the constructor which opens a spool, recovering it's segments and checkpoint.
+     * @param port The server port.
+     * @param directory The spool directory.
+     * @throws IOException
+     */
+    private Gameserver_Spool(int port, File directory) throws IOException {
+
+        this.port = port;
+        this.directory = directory;
+
+        Files.createDirectories(directory.toPath());
+
+        final String[] names = directory.list();
+        Arrays.sort(names);// Zero padded, thus in sequence order
+
+        String last = null;
+
+        for (String name : names) {
+            if (name.endsWith(".seg")) {
+                last = name;
+            }
+        }
+
+        for (String name : names) {
+
+            if (!name.endsWith(".seg")) {
+                continue;
+            }
+
+            final Segment segment = Segment.recover(new File(directory, name), Long.parseLong(name.substring(0, name.length() - 4)), name.equals(last));
+
+            if (!segments.isEmpty() && segments.get(segments.size() - 1).next != segment.base) {
+                Notifier.print(Notifier.Level.WARN, "Spool of server on port " + port + " is missing lines " + segments.get(segments.size() - 1).next + " to " + (segment.base - 1));
+            }
+
+            segments.add(segment);
+        }
+
+        this.checkpoint = new RandomAccessFile(new File(directory, "checkpoint"), "rw");
+
+        final long recorded = checkpoint.length() >= 8 ? checkpoint.readLong() : 0;
+        offset = checkpoint.length() >= 16 ? checkpoint.readLong() : -1;
+
+        next_sequence = segments.isEmpty() ? recorded : segments.get(segments.size() - 1).next;
+        shipped = Math.min(next_sequence, Math.max(recorded, segments.isEmpty() ? recorded : segments.get(0).base));
+        cursor.sequence = shipped;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method opens the spool of a gameserver, once, shared by it's logger and the log shipper.
+     * @param port The server port.
+     * @return Gameserver_Spool The spool.
+     * @throws IOException If the spool failed to be opened.
+     */
+    public static Gameserver_Spool open(int port) throws IOException {
+        return open(port, false);
+    }
+
+    /**
+     * This method opens the spool of a gameserver, once, shared by it's logger and the log shipper.
+     * The appender is attached while holding the lock, thus the spool is never released in between.
+     * @param port The server port.
+     * @param attach If the appender shall be attached.
+     * @return Gameserver_Spool The spool.
+     * @throws IOException If the spool failed to be opened, or is already written when attaching.
+     */
+    public static synchronized Gameserver_Spool open(int port, boolean attach) throws IOException {
+
+        Gameserver_Spool spool = spools.get(port);
+
+        if (spool != null && !spool.isWriting() && (!spool.directory.isDirectory() || spool.closed)) {
+            spools.remove(port, spool);
+            spool.close();// Removed, opened again
+            spool = null;
+        }
+
+        if (spool == null) {// A written spool is kept, even if it's directory was removed
+            spool = new Gameserver_Spool(port, new File("servers/server_" + port, DIRECTORY));
+            spools.put(port, spool);
+        }
+
+        if (attach) {
+
+            if (spool.isWriting()) {
+                throw new IOException("Spool of server on port " + port + " is still written");
+            }
+
+            spool.attach();
+        }
+
+        return spool;
+    }
+
+    /**
+     * This method opens the spools with lines not yet shipped, left by an earlier run.
+     * @param servers The directory of the gameserver directories.
+     * @return int The number of spools with lines not yet shipped.
+     */
+    public static int recover(String servers) {
+
+        final File[] directories = new File(servers).listFiles();
+
+        if (directories == null) {
+            return 0;
+        }
+
+        int recovered = 0;
+
+        for (File server : directories) {
+
+            final String name = server.getName();
+
+            if (!name.startsWith("server_") || !new File(server, DIRECTORY).isDirectory()) {
+                continue;
+            }
+
+            try {
+
+                final Gameserver_Spool spool = open(Integer.parseInt(name.substring("server_".length())));
+
+                if (spool.isPending()) {
+                    recovered++;
+                } else if (!spool.isWriting()) {
+                    release(spool);
+                }
+
+            } catch (NumberFormatException ex) {
+                // Not a gameserver directory
+
+            } catch (IOException ex) {
+                Logger.getLogger(Gameserver_Spool.class.getName()).log(Level.SEVERE, "Failed to recover spool of " + name, ex);
+            }
+        }
+
+        return recovered;
+    }
+
+    /**
+     * This method returns the open spools.
+     * @return Collection<Gameserver_Spool> The open spools.
+     */
+    public static Collection<Gameserver_Spool> getSpools() {
+        return spools.values();
+    }
+
+    /**
+     * This method releases a spool which is neither written nor has lines to be shipped.
+     * @param spool The spool.
+     */
+    public static synchronized void release(Gameserver_Spool spool) {
+
+        if (spool.isWriting() || spool.isPending() || !spools.remove(spool.port, spool)) {
+            return;
+        }
+
+        spool.close();
+    }
+
+    /**
+     * This method closes the spool of a gameserver, releasing it's files, such as before it's
+     * directory is moved. The lines not yet shipped are shipped once it's opened again by reopen.
+     * @param port The server port.
+     * @return boolean If the spool is closed, false if lines are appended to it.
+     */
+    public static synchronized boolean close(int port) {
+
+        final Gameserver_Spool spool = spools.get(port);
+
+        if (spool == null) {
+            return true;
+        }
+
+        if (spool.isWriting()) {
+            return false;
+        }
+
+        spools.remove(port, spool);
+        spool.close();
+
+        return true;
+    }
+
+    /**
+     * This method opens the spool of a gameserver closed by close again, if it has lines not yet shipped.
+     * @param port The server port.
+     */
+    public static synchronized void reopen(int port) {
+
+        if (spools.containsKey(port) || !new File("servers/server_" + port, DIRECTORY).isDirectory()) {
+            return;
+        }
+
+        try {
+
+            final Gameserver_Spool spool = open(port);
+
+            if (!spool.isPending()) {
+                release(spool);
+            }
+
+        } catch (IOException ex) {
+            Logger.getLogger(Gameserver_Spool.class.getName()).log(Level.SEVERE, "Failed to open spool of server on port " + port, ex);
+        }
+    }
+
+    /**
+     * This method returns the last lines of a gameserver, from memory or it's spool.
+     * @param port The server port.
+     * @param count The maximum number of lines.
+     * @return List<String> The lines, oldest first, empty if the gameserver has no spool.
+     * @throws IOException If the spool failed to be opened.
+     */
+    public static List<String> readTail(int port, int count) throws IOException {
+
+        if (!spools.containsKey(port) && !new File("servers/server_" + port, DIRECTORY).isDirectory()) {
+            return new ArrayList<>();
+        }
+
+        return open(port).getTail(count);
+    }
+
+    /**
+     * This method returns the server port.
+     * @return int The server port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * This method verifies if lines are appended to the spool.
+     * @return boolean If the spool is written.
+     */
+    public boolean isWriting() {
+        return writing;
+    }
+
+    /**
+     * This method verifies if there are lines not yet shipped.
+     * @return boolean If there are lines to be shipped.
+     */
+    public boolean isPending() {
+        return shipped < next_sequence;
+    }
+
+    /**
+     * This method returns the number of lines not yet shipped.
+     * @return long The number of lines.
+     */
+    public long getPending() {
+        return Math.max(0, next_sequence - shipped);
+    }
+
+    /**
+     * This method returns the number of lines deleted before being shipped, of all spools.
+     * @return long The number of lines.
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * This method attaches the appender. Lines are appended to the last segment while it has
+     * room, it's index file is deleted until sealed again, otherwise to a new segment. Only
+     * called by open, holding the lock of the spools.
+     */
+    private void attach() {
+
+        current = null;
+
+        synchronized (this) {
+
+            final Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+            if (last != null && !last.buffer.isReadOnly() && last.end + HEADER < last.buffer.capacity()
+                    && (!last.index_file().exists() || last.index_file().delete())) {
+                current = last;
+            }
+        }
+
+        writing = true;
+    }
+
+    /**
+     * This method detaches the appender, sealing the current segment.
+     */
+    public void detach() {
+
+        if (current != null) {
+            seal(current);
+            current = null;
+        }
+
+        writing = false;
+    }
+
+    /**
+     * This method appends a line. May only be called by the appender.
+     * @param line The line.
+     * @return long The sequence number of the line.
+     * @throws IOException If a new segment failed to be created.
+     */
+    public long append(String line) throws IOException {
+
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > MAX_LINE) {
+            bytes = Arrays.copyOf(bytes, MAX_LINE);
+        }
+
+        final int length = HEADER + bytes.length;
+
+        if (current == null || current.end + length > current.buffer.capacity()) {
+            roll();
+        }
+
+        final Segment segment = current;
+        final ByteBuffer buffer = segment.buffer;
+        final long sequence = next_sequence;
+        final int offset = segment.end;
+
+        buffer.putLong(offset + 4, sequence);
+        buffer.putLong(offset + 12, System.currentTimeMillis());
+        buffer.position(offset + HEADER);
+        buffer.put(bytes);
+        buffer.putInt(offset, length);// Complete
+
+        if ((sequence - segment.base) % INDEX_INTERVAL == 0) {
+            segment.index(sequence, offset);
+        }
+
+        segment.next = sequence + 1;
+        segment.end = offset + length;// Published to the tailer
+        next_sequence = sequence + 1;
+
+        synchronized (tail) {
+            if (tail_count >= 0 && sequence >= tail_next) {
+                tail[(int) (tail_count++ % TAIL)] = line;
+                tail_next = sequence + 1;
+            }
+        }
+
+        return sequence;
+    }
+
+    /**
+     * This method returns the last lines of the spool, from memory.
+     * @param count The maximum number of lines.
+     * @return List<String> The lines, oldest first.
+     */
+    public List<String> getTail(int count) {
+
+        synchronized (tail) {
+
+            if (tail_count < 0) {// Read from the segments, once
+
+                final List<Line> lines = new ArrayList<>();
+                final Cursor reader = new Cursor();
+
+                reader.sequence = Math.max(0, next_sequence - TAIL);
+                read(reader, lines, TAIL);
+
+                tail_count = 0;
+                tail_next = reader.sequence;
+
+                for (Line line : lines) {
+                    tail[(int) (tail_count++ % TAIL)] = line.getText();
+                }
+            }
+
+            final int n = (int) Math.min(Math.min(count, TAIL), tail_count);
+            final List<String> lines = new ArrayList<>(n);
+
+            for (long i = tail_count - n; i < tail_count; i++) {
+                lines.add(tail[(int) (i % TAIL)]);
+            }
+
+            return lines;
+        }
+    }
+
+    /**
+     * This method reads the lines following the last read line. May only be called by the tailer.
+     * @param lines The list receiving the lines.
+     * @param max The maximum number of lines to be read.
+     * @return int The number of lines read.
+     */
+    public int read(List<Line> lines, int max) {
+
+        if (cursor.sequence < shipped) {// Lines were deleted
+            seek(cursor, shipped);
+        }
+
+        return read(cursor, lines, max);
+    }
+
+    /**
+     * This method returns the sequence number of the first line read by the next read.
+     * @return long The sequence number.
+     */
+    public long getReadSequence() {
+        return cursor.sequence;
+    }
+
+    /**
+     * This method moves the checkpoint to the first line not yet read, once the read lines were shipped.
+     * May only be called by the tailer.
+     * @throws IOException If the checkpoint failed to be written.
+     */
+    public synchronized void commit() throws IOException {
+
+        if (closed || cursor.sequence <= shipped) {
+            return;
+        }
+
+        shipped = cursor.sequence;
+
+        writeCheckpoint();
+    }
+
+    /**
+     * This method returns the offset added to the sequence numbers when shipped.
+     * @return long The offset, or -1 if not yet determined.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * This method sets the offset added to the sequence numbers when shipped. May only be called by the tailer.
+     * @param offset The offset, or -1 to be determined again.
+     * @throws IOException If the checkpoint failed to be written.
+     */
+    public synchronized void setOffset(long offset) throws IOException {
+
+        this.offset = offset;
+
+        if (!closed) {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * This method moves the next read back to the checkpoint, after the read lines failed to be shipped.
+     * May only be called by the tailer.
+     */
+    public synchronized void rewind() {
+        seek(cursor, shipped);
+    }
+
+    /**
+     * This method writes the checkpoint and offset.
+     * @throws IOException If the checkpoint failed to be written.
+     */
+    private void writeCheckpoint() throws IOException {
+
+        checkpoint.seek(0);
+        checkpoint.writeLong(shipped);
+        checkpoint.writeLong(offset);
+    }
+
+    /**
+     * This method reads the lines following a cursor, moving the cursor.
+     * @param cursor The cursor.
+     * @param lines The list receiving the lines.
+     * @param max The maximum number of lines to be read.
+     * @return int The number of lines read.
+     */
+    private int read(Cursor cursor, List<Line> lines, int max) {
+
+        int count = 0;
+
+        while (count < max && cursor.sequence < next_sequence) {
+
+            if (cursor.segment == null || cursor.segment.closed || cursor.offset >= cursor.segment.end) {
+
+                if (cursor.segment != null && !cursor.segment.closed && cursor.segment.next > cursor.sequence) {
+                    break;// Not yet published
+                }
+
+                if (!seek(cursor, cursor.sequence) || cursor.offset >= cursor.segment.end) {
+                    break;
+                }
+            }
+
+            final Segment segment = cursor.segment;
+
+            synchronized (segment) {
+
+                if (segment.closed) {
+                    continue;// Deleted meanwhile, positioned again
+                }
+
+                final ByteBuffer view = cursor.view;
+
+                while (count < max && cursor.offset < segment.end && cursor.sequence < next_sequence) {
+
+                    final int length = view.getInt(cursor.offset);
+                    final byte[] bytes = new byte[length - HEADER];
+
+                    view.position(cursor.offset + HEADER);
+                    view.get(bytes);
+
+                    lines.add(new Line(cursor.sequence, view.getLong(cursor.offset + 12), new String(bytes, StandardCharsets.UTF_8)));
+
+                    cursor.offset += length;
+                    cursor.sequence++;
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * This method positions a cursor on a sequence number, by the index of it's segment. The
+     * segments are only unmapped holding the lock of the spool, thus they are read safely here.
+     * @param cursor The cursor.
+     * @param sequence The sequence number.
+     * @return boolean If the sequence number is within a segment.
+     */
+    private synchronized boolean seek(Cursor cursor, long sequence) {
+
+        Segment found = null;
+
+        for (int i = segments.size() - 1; i >= 0; i--) {
+
+            final Segment segment = segments.get(i);
+
+            if (segment.base <= sequence) {
+                found = segment;
+                break;
+            }
+        }
+
+        if (found == null) {
+
+            if (segments.isEmpty()) {
+                return false;
+            }
+
+            found = segments.get(0);
+            sequence = found.base;// Older lines deleted
+        }
+
+        final long[] entry = found.lookup(sequence);
+
+        long position = entry[0];
+        int offset = (int) entry[1];
+
+        final ByteBuffer view = found.buffer.duplicate();
+        final int end = found.end;
+
+        while (position < sequence && offset < end) {
+            offset += view.getInt(offset);
+            position++;
+        }
+
+        if (position < sequence) {
+
+            final int index = segments.indexOf(found);
+
+            if (found.next > position || index + 1 >= segments.size()) {
+                return false;// Not yet published
+            }
+
+            // Beyond this segment, the next one starts with the sequence
+            found = segments.get(index + 1);
+
+            cursor.segment = found;
+            cursor.view = found.buffer.duplicate();
+            cursor.offset = 0;
+            cursor.sequence = found.base;
+
+            return true;
+        }
+
+        cursor.segment = found;
+        cursor.view = view;
+        cursor.offset = offset;
+        cursor.sequence = sequence;
+
+        return true;
+    }
+
+    /**
+     * This method seals the current segment and starts the next one, deleting the oldest
+     * segments exceeding the maximum size of the spool.
+     * @throws IOException If the segment failed to be created.
+     */
+    private void roll() throws IOException {
+
+        if (current != null) {
+            seal(current);
+        }
+
+        final long base = next_sequence;
+        final File file = new File(directory, String.format("%020d.seg", base));
+
+        Files.createDirectories(directory.toPath());
+
+        final MappedByteBuffer buffer;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+
+        final Segment segment = new Segment(file, base, buffer);
+
+        synchronized (this) {
+
+            segments.add(segment);
+
+            while (segments.size() > 1 && (long) segments.size() * SEGMENT_SIZE > MAX_BYTES) {
+
+                final Segment oldest = segments.remove(0);
+                final long lost = oldest.next - Math.max(oldest.base, shipped);
+
+                if (lost > 0) {
+                    dropped.addAndGet(lost);
+                    shipped = oldest.next;
+                    Notifier.print(Notifier.Level.WARN, "Spool of server on port " + port + " is full, deleted " + lost + " lines not yet shipped!");
+                }
+
+                oldest.close();
+
+                if (!oldest.file.delete() || (oldest.index_file().exists() && !oldest.index_file().delete())) {
+                    Notifier.print(Notifier.Level.WARN, "Failed to delete spool segment " + oldest.file.getPath());
+                }
+            }
+        }
+
+        current = segment;
+    }
+
+    /**
+     * This method closes the spool, unmapping it's segments and closing the checkpoint.
+     */
+    private synchronized void close() {
+
+        closed = true;
+
+        for (Segment segment : segments) {
+            segment.close();
+        }
+
+        segments.clear();
+        current = null;
+
+        try {
+            checkpoint.close();
+        } catch (IOException ex) {
+            Logger.getLogger(Gameserver_Spool.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * This method releases the mapping of a buffer at once rather than when collected. The
+     * buffer may not be accessed afterwards. The mapping is left to be released when collected
+     * if the running JVM does not support it.
+     * @param buffer The mapped buffer.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+
+        try {
+
+            final Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+
+            try {
+
+                final Method invokeCleaner = unsafe.getMethod("invokeCleaner", ByteBuffer.class);// Java 9 and later
+                final Field field = unsafe.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                invokeCleaner.invoke(field.get(null), buffer);
+
+            } catch (NoSuchMethodException ex) {
+
+                final Method cleaner = buffer.getClass().getMethod("cleaner");// Java 8
+                cleaner.setAccessible(true);
+
+                final Object instance = cleaner.invoke(buffer);
+
+                if (instance != null) {
+                    instance.getClass().getMethod("clean").invoke(instance);
+                }
+            }
+
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Released when collected
+        }
+    }
+
+    /**
+     * This method writes the index of a sealed segment next to it.
+     * @param segment The sealed segment.
+     */
+    private void seal(Segment segment) {
+
+        final File index = segment.index_file();
+        final File temporary = new File(directory, index.getName() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary))) {
+
+            output.writeLong(segment.next);
+            output.writeInt(segment.end);
+            output.writeInt(segment.index_count);
+
+            for (int i = 0; i < segment.index_count; i++) {
+                output.writeLong(segment.index_sequences[i]);
+                output.writeInt(segment.index_offsets[i]);
+            }
+
+        } catch (IOException ex) {
+            Logger.getLogger(Gameserver_Spool.class.getName()).log(Level.SEVERE, "Failed to write index of spool segment " + segment.file.getPath(), ex);
+            return;
+        }
+
+        try {
+            Files.move(temporary.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Logger.getLogger(Gameserver_Spool.class.getName()).log(Level.SEVERE, "Failed to write index of spool segment " + segment.file.getPath(), ex);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Line class holds one line read from a spool.
+     */
+    public static final class Line {
+
+        private final long sequence;
+        private final long timestamp;
+        private final String text;
+
+        /**
+         * This is the constructor which initialize the line.
+         * @param sequence The sequence number of the line.
+         * @param timestamp The time the line was appended, in milliseconds since the epoch.
+         * @param text The text of the line.
+         */
+        public Line(long sequence, long timestamp, String text) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.text = text;
+        }
+
+        /**
+         * This method returns the sequence number of the line.
+         * @return long The sequence number.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * This method returns the time the line was appended.
+         * @return long The time, in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * This method returns the text of the line.
+         * @return String The text.
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * The Cursor class holds a read position of a spool.
+     */
+    private static final class Cursor {
+
+        private Segment segment = null;
+        private ByteBuffer view = null;
+        private int offset = 0;
+        private long sequence = 0;
+    }
+
+    /**
+     * The Segment class holds one mapped segment file and it's index.
+     */
+    private static final class Segment {
+
+        private final File file;
+        private final long base;
+        private final MappedByteBuffer buffer;// Appender only, others use a duplicate
+
+        private volatile int end = 0;// Offset following the last complete record
+        private volatile long next;// Sequence following the last complete record
+        private volatile boolean closed = false;// Unmapped, guarded by the segment
+
+        private long[] index_sequences = new long[16];
+        private int[] index_offsets = new int[16];
+        private int index_count = 0;// Guarded by the segment
+
+        private Segment(File file, long base, MappedByteBuffer buffer) {
+            this.file = file;
+            this.base = base;
+            this.buffer = buffer;
+            this.next = base;
+        }
+
+        private File index_file() {
+            return new File(file.getParentFile(), file.getName().replace(".seg", ".idx"));
+        }
+
+        private synchronized void close() {
+
+            if (!closed) {
+                closed = true;
+                unmap(buffer);
+            }
+        }
+
+        private synchronized long[] lookup(long sequence) {
+
+            for (int i = index_count - 1; i >= 0; i--) {
+                if (index_sequences[i] <= sequence) {
+                    return new long[] { index_sequences[i], index_offsets[i] };
+                }
+            }
+
+            return new long[] { base, 0 };
+        }
+
+        private synchronized void index(long sequence, int offset) {
+
+            if (index_count == index_sequences.length) {
+                index_sequences = Arrays.copyOf(index_sequences, index_count * 2);
+                index_offsets = Arrays.copyOf(index_offsets, index_count * 2);
+            }
+
+            index_sequences[index_count] = sequence;
+            index_offsets[index_count] = offset;
+            index_count++;
+        }
+
+        /**
+         * This method opens an existing segment, by it's index if sealed, otherwise by scanning it's records.
+         * The last segment is mapped writable, thus it's continued by the appender.
+         */
+        private static Segment recover(File file, long base, boolean writable) throws IOException {
+
+            final MappedByteBuffer buffer;
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r")) {
+                buffer = raf.getChannel().map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            }
+
+            final Segment segment = new Segment(file, base, buffer);
+            final File index = segment.index_file();
+
+            if (index.isFile()) {
+
+                try (DataInputStream input = new DataInputStream(new FileInputStream(index))) {
+
+                    final long next = input.readLong();
+                    final int end = input.readInt();
+                    final int count = input.readInt();
+
+                    if (end <= buffer.capacity() && next >= base && count >= 0) {
+
+                        for (int i = 0; i < count; i++) {
+                            segment.index(input.readLong(), input.readInt());
+                        }
+
+                        segment.next = next;
+                        segment.end = end;
+
+                        return segment;
+                    }
+
+                } catch (IOException ex) {
+                    // Incomplete index, scanned instead
+                }
+
+                synchronized (segment) {
+                    segment.index_count = 0;
+                }
+            }
+
+            int offset = 0;
+            long sequence = base;
+
+            while (offset + HEADER <= buffer.capacity()) {
+
+                final int length = buffer.getInt(offset);
+
+                if (length < HEADER || offset + length > buffer.capacity() || buffer.getLong(offset + 4) != sequence) {
+                    break;// End of the complete records
+                }
+
+                if ((sequence - base) % INDEX_INTERVAL == 0) {
+                    segment.index(sequence, offset);
+                }
+
+                offset += length;
+                sequence++;
+            }
+
+            segment.next = sequence;
+            segment.end = offset;
+
+            return segment;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package mrev.server.gameserver.components;
+
+/**
+ * The Gameserver_State enum holds the lifecycle states of a registered gameserver.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 12:20:09
+ * @version 0.0.1
+ */
+public enum Gameserver_State {
+    
+    /**
+     * The port is reserved and the gameserver waits to be admitted by the launch scheduler.
+     */
+    QUEUED,
+    
+    /**
+     * The port is reserved and the gameserver process is being started, until the
+     * gameserver reports that it's done loading.
+     */
+    STARTING,
+    
+    /**
+     * The gameserver process is running and done loading.
+     */
+    RUNNING,
+    
+    /**
+     * The gameserver was asked to stop and is shutting down.
+     */
+    STOPPING,
+    
+    /**
+     * The gameserver process has stopped, waiting for it's final logs to be saved.
+     */
+    STOPPED
+}
@@ -0,0 +1,287 @@
+package mrev.server.components;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Server_SupervisorTest class tests the per-server supervision of a loop: the order of
+ * the tasks of each server, the deadline of a loop with a blocked server and the wait of
+ * runExclusive. The tick latency from 10 to 200 servers is printed as a benchmark.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 21:44:12
+ * @version 0.0.1
+ */
+public class Server_SupervisorTest {
+
+    // -------------------------------------------------------------------------
+
+    private static final long DEADLINE = 150;
+
+    private Server_Supervisor supervisor;
+
+    // -------------------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+        supervisor = new Server_Supervisor();
+    }
+
+    @After
+    public void tearDown() {
+        supervisor.shutdown();
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * A server never has two tasks in flight, over many loops.
+     */
+    @Test
+    public void testNoConcurrentTasksPerServer() {
+
+        final int[] ports = ports(50);
+        final AtomicIntegerArray running = new AtomicIntegerArray(65536);
+        final AtomicInteger overlaps = new AtomicInteger(0);
+        final AtomicInteger runs = new AtomicInteger(0);
+
+        final Server_Supervisor.Task task = new Server_Supervisor.Task() {
+
+            @Override
+            public void run(int port) {
+
+                if (running.incrementAndGet(port) != 1) {
+                    overlaps.incrementAndGet();
+                }
+
+                runs.incrementAndGet();
+                running.decrementAndGet(port);
+            }
+        };
+
+        for (int i = 0; i < 100; i++) {
+            supervisor.supervise(ports, task, DEADLINE);
+        }
+
+        assertEquals(0, overlaps.get());
+        assertTrue(runs.get() > 0);
+    }
+
+    /**
+     * A blocked server delays neither the loop beyond it's deadline nor the other servers,
+     * and is skipped by the next loop while still blocked.
+     */
+    @Test
+    public void testBlockedServerSkipped() throws InterruptedException {
+
+        final int[] ports = ports(200);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger finished = new AtomicInteger(0);
+
+        final Server_Supervisor.Task task = new Server_Supervisor.Task() {
+
+            @Override
+            public void run(int port) {
+
+                if (port == ports[0]) {
+                    await(release);
+                } else {
+                    finished.incrementAndGet();
+                }
+            }
+        };
+
+        try {
+
+            final long started = System.nanoTime();
+
+            assertEquals(1, supervisor.supervise(ports, task, 50));
+            assertTrue("Loop exceeded it's deadline", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 1000);
+            assertEquals(ports.length - 1, finished.get());
+
+            assertTrue(supervisor.isBusy(ports[0]));
+            assertEquals(1, supervisor.supervise(new int[] { ports[0] }, task, 50));
+
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * An interrupted thread waiting in runExclusive neither spins nor loses it's interrupt.
+     */
+    @Test
+    public void testRunExclusiveInterrupted() throws InterruptedException {
+
+        final int port = 40000;
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        supervisor.supervise(new int[] { port }, new Server_Supervisor.Task() {
+
+            @Override
+            public void run(int port) {
+                await(release);
+            }
+        }, 10);
+
+        final Thread waiter = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                Thread.currentThread().interrupt();
+
+                supervisor.runExclusive(port, new Server_Supervisor.Task() {
+
+                    @Override
+                    public void run(int port) {
+                        ran.set(true);
+                    }
+                });
+
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+
+        waiter.start();
+        Thread.sleep(500);
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final long cpu = threads.isThreadCpuTimeSupported() ? threads.getThreadCpuTime(waiter.getId()) : 0;
+
+        release.countDown();
+        waiter.join(5000);
+
+        assertTrue(ran.get());
+        assertTrue("Interrupt lost", interrupted.get());
+        assertTrue("Spun while waiting: " + TimeUnit.NANOSECONDS.toMillis(cpu) + " ms CPU in 500 ms", cpu < TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    /**
+     * A supervisor shut down runs no tasks and leaves no port busy, and runs them again once
+     * started again.
+     */
+    @Test
+    public void testRestartAfterShutdown() {
+
+        final int[] ports = ports(10);
+        final AtomicInteger runs = new AtomicInteger(0);
+
+        final Server_Supervisor.Task task = new Server_Supervisor.Task() {
+
+            @Override
+            public void run(int port) {
+                runs.incrementAndGet();
+            }
+        };
+
+        supervisor.shutdown();
+
+        assertEquals(ports.length, supervisor.supervise(ports, task, DEADLINE));
+        assertEquals(0, runs.get());
+
+        for (int port : ports) {
+            assertFalse(supervisor.isBusy(port));
+        }
+
+        supervisor.start();
+
+        assertEquals(0, supervisor.supervise(ports, task, 1000));
+        assertEquals(ports.length, runs.get());
+    }
+
+    /**
+     * The tick latency of 10 to 200 servers, each step reading a little console output.
+     */
+    @Test
+    public void testTickLatencyBenchmark() {
+
+        final Server_Supervisor.Task task = new Server_Supervisor.Task() {
+
+            @Override
+            public void run(int port) {
+                step(port);
+            }
+        };
+
+        for (int count : new int[] { 10, 50, 100, 200 }) {
+
+            final int[] ports = ports(count);
+            final long[] ticks = new long[200];
+
+            for (int i = 0; i < 50; i++) {
+                supervisor.supervise(ports, task, DEADLINE);// Warm up
+            }
+
+            int late = 0;
+
+            for (int i = 0; i < ticks.length; i++) {
+                final long started = System.nanoTime();
+                late += supervisor.supervise(ports, task, DEADLINE);
+                ticks[i] = System.nanoTime() - started;
+            }
+
+            Arrays.sort(ticks);
+
+            System.out.println(count + " servers: " + TimeUnit.NANOSECONDS.toMicros(ticks[ticks.length / 2]) + " us median, "
+                    + TimeUnit.NANOSECONDS.toMicros(ticks[ticks.length * 99 / 100]) + " us p99 tick, " + late + " late tasks");
+
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(ticks[ticks.length / 2]) < DEADLINE);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    private static int[] ports(int count) {
+
+        final int[] ports = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            ports[i] = 25565 + i;
+        }
+
+        return ports;
+    }
+
+    private static void await(CountDownLatch latch) {
+
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static volatile long sink;
+
+    /**
+     * This method stands in for the step of one server, formatting a few console lines.
+     */
+    private static void step(int port) {
+
+        final StringBuilder line = new StringBuilder(64);
+        long hash = 0;
+
+        for (int i = 0; i < 20; i++) {
+            line.setLength(0);
+            line.append("[12:00:00] [Server thread/INFO]: ").append(port).append(' ').append(i);
+            hash += line.toString().hashCode();
+        }
+
+        sink = hash;
+    }
+}
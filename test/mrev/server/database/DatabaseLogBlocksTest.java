@@ -0,0 +1,244 @@
+package mrev.server.database;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import mrev.server.gameserver.components.Gameserver_Spool;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The DatabaseLogBlocksTest class tests the compressed log blocks of the log writer. Each batch
+ * of lines shall be decoded to the same sequence numbers, times and texts, and a damaged block
+ * shall be refused with a DataFormatException rather than decoded to wrong lines.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 21:12:26
+ * @version 0.0.1
+ */
+public class DatabaseLogBlocksTest {
+
+    // -------------------------------------------------------------------------
+
+    private static final long OFFSET = 1000;
+    private static final long EPOCH = 1792270000000L;
+
+    private final DatabaseLogBlocks blocks = new DatabaseLogBlocks();
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * A batch of console lines is decoded to the same lines, the offset added to their
+     * sequence numbers.
+     */
+    @Test
+    public void testRoundTrip() throws DataFormatException {
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            lines.add(new Gameserver_Spool.Line(i, EPOCH + i * 7, "[12:00:00] [Server thread/INFO]: Line " + i));
+        }
+
+        final byte[] block = blocks.encode(lines, OFFSET);
+
+        assertDecoded(lines, OFFSET, block);
+        assertTrue("Not compressed", block.length < blocks.getRawBytes());
+        assertEquals(block.length, blocks.getStoredBytes());
+    }
+
+    /**
+     * The encoder is reused for the next batch, which is decoded on it's own.
+     */
+    @Test
+    public void testEncoderReused() throws DataFormatException {
+
+        final List<Gameserver_Spool.Line> first = new ArrayList<>();
+        final List<Gameserver_Spool.Line> second = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            first.add(new Gameserver_Spool.Line(i, EPOCH + i, "First batch " + i));
+            second.add(new Gameserver_Spool.Line(100 + i, EPOCH + 100 + i, "Second batch " + i));
+        }
+
+        final byte[] first_block = blocks.encode(first, 0);
+        final byte[] second_block = blocks.encode(second, 0);
+
+        assertDecoded(first, 0, first_block);
+        assertDecoded(second, 0, second_block);
+    }
+
+    /**
+     * A clock turned back gives negative time deltas, which are kept.
+     */
+    @Test
+    public void testNegativeTimeDeltas() throws DataFormatException {
+
+        final List<Gameserver_Spool.Line> lines = Arrays.asList(
+                new Gameserver_Spool.Line(0, EPOCH, "Before"),
+                new Gameserver_Spool.Line(1, EPOCH - 3600 * 1000, "Clock turned back an hour"),
+                new Gameserver_Spool.Line(2, EPOCH - 3600 * 1000 - 1, "One millisecond back"),
+                new Gameserver_Spool.Line(3, EPOCH + 60 * 1000, "Clock turned forward"),
+                new Gameserver_Spool.Line(4, 0, "Epoch"));
+
+        assertDecoded(lines, OFFSET, blocks.encode(lines, OFFSET));
+    }
+
+    /**
+     * Empty lines and an empty batch are kept.
+     */
+    @Test
+    public void testEmptyText() throws DataFormatException {
+
+        final List<Gameserver_Spool.Line> lines = Arrays.asList(
+                new Gameserver_Spool.Line(0, EPOCH, ""),
+                new Gameserver_Spool.Line(1, EPOCH, "Between"),
+                new Gameserver_Spool.Line(2, EPOCH, ""));
+
+        assertDecoded(lines, 0, blocks.encode(lines, 0));
+
+        final List<Gameserver_Spool.Line> none = new ArrayList<>();
+
+        assertDecoded(none, 0, blocks.encode(none, 0));
+    }
+
+    /**
+     * Multi-byte UTF-8 text is kept, the length of a line being counted in bytes.
+     */
+    @Test
+    public void testMultiByteText() throws DataFormatException {
+
+        final List<Gameserver_Spool.Line> lines = Arrays.asList(
+                new Gameserver_Spool.Line(0, EPOCH, "<\u00C5sa> Hej p\u00E5 dig, hur m\u00E5r du?"),
+                new Gameserver_Spool.Line(1, EPOCH, "<\u0394\u03B7\u03BC\u03AE\u03C4\u03C1\u03B7\u03C2> \u039A\u03B1\u03BB\u03B7\u03BC\u03AD\u03C1\u03B1"),
+                new Gameserver_Spool.Line(2, EPOCH, "<\u73A9\u5BB6> \u4F60\u597D\u4E16\u754C"),
+                new Gameserver_Spool.Line(3, EPOCH, "<Player> \uD83D\uDE00\uD83C\uDF89 GG"));
+
+        assertDecoded(lines, 0, blocks.encode(lines, 0));
+    }
+
+    /**
+     * A block cut short is refused.
+     */
+    @Test
+    public void testTruncatedBlock() {
+
+        final byte[] block = blocks.encode(sample(), 0);
+
+        for (int length : new int[] { 0, 1, block.length / 2, block.length - 1 }) {
+            assertRefused(Arrays.copyOf(block, length));
+        }
+    }
+
+    /**
+     * A block with damaged compressed data is refused.
+     */
+    @Test
+    public void testCorruptBlock() {
+
+        final byte[] block = blocks.encode(sample(), 0);
+
+        for (int i = 0; i < block.length; i += Math.max(1, block.length / 16)) {
+
+            final byte[] corrupt = block.clone();
+            corrupt[i] ^= 0x5A;
+
+            assertRefused(corrupt);
+        }
+    }
+
+    /**
+     * A block inflating to impossible counts or lengths is refused.
+     */
+    @Test
+    public void testCorruptContent() {
+
+        assertRefused(deflate(0xFF, 0xFF, 0xFF, 0xFF, 0x0F));// Line count overflowing to negative
+        assertRefused(deflate(0xFF, 0xFF, 0xFF, 0x7F));// More lines than bytes
+        assertRefused(deflate(0x01, 0x00, 0x00, 0x10, 'a'));// Text longer than the block
+        assertRefused(deflate(0x01, 0x00, 0x80));// Varint cut short
+    }
+
+    /**
+     * A block of an unknown dictionary is refused.
+     */
+    @Test
+    public void testUnknownDictionary() {
+
+        try {
+            DatabaseLogBlocks.decode(blocks.encode(sample(), 0), DatabaseLogBlocks.DICTIONARY_VERSION + 1);
+            fail("Decoded with an unknown dictionary");
+        } catch (DataFormatException ex) {
+            // Refused
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    private static List<Gameserver_Spool.Line> sample() {
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            lines.add(new Gameserver_Spool.Line(i, EPOCH + i, "[12:00:00] [Server thread/INFO]: Player" + i + " joined the game"));
+        }
+
+        return lines;
+    }
+
+    private static void assertDecoded(List<Gameserver_Spool.Line> expected, long offset, byte[] block) throws DataFormatException {
+
+        final List<Gameserver_Spool.Line> lines = DatabaseLogBlocks.decode(block, DatabaseLogBlocks.DICTIONARY_VERSION);
+
+        assertEquals(expected.size(), lines.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getSequence() + offset, lines.get(i).getSequence());
+            assertEquals(expected.get(i).getTimestamp(), lines.get(i).getTimestamp());
+            assertEquals(expected.get(i).getText(), lines.get(i).getText());
+        }
+    }
+
+    private static void assertRefused(byte[] block) {
+
+        try {
+            DatabaseLogBlocks.decode(block, DatabaseLogBlocks.DICTIONARY_VERSION);
+            fail("Decoded a damaged block of " + block.length + " bytes");
+        } catch (DataFormatException ex) {
+            // Refused
+        }
+    }
+
+    /**
+     * This method compresses raw block content without the dictionary, which the decoder
+     * accepts as well, thus the content is not checked by the compression.
+     */
+    private static byte[] deflate(int... content) {
+
+        final byte[] raw = new byte[content.length];
+
+        for (int i = 0; i < content.length; i++) {
+            raw[i] = (byte) content[i];
+        }
+
+        final Deflater deflater = new Deflater();
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[256];
+
+        deflater.setInput(raw);
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            block.write(buffer, 0, deflater.deflate(buffer));
+        }
+
+        deflater.end();
+
+        return block.toByteArray();
+    }
+}
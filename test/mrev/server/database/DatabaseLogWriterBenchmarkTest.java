@@ -0,0 +1,173 @@
+package mrev.server.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import mrev.server.gameserver.components.Gameserver_Spool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The DatabaseLogWriterBenchmarkTest class compares the rows per second of the log writer, one
+ * batched statement per batch of lines, with the former path of three statements and round
+ * trips per line. It needs a MySQL database, given by -Dmrev.test.db.url (a JDBC url of the
+ * log database), -Dmrev.test.db.user and -Dmrev.test.db.pass, and is skipped otherwise.
+ * The rows of the test port 65003 are deleted afterwards.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 21:58:31
+ * @version 0.0.1
+ */
+public class DatabaseLogWriterBenchmarkTest {
+
+    // -------------------------------------------------------------------------
+
+    private static final String URL = System.getProperty("mrev.test.db.url");
+    private static final int PORT = 65003;
+
+    private static final int LEGACY_LINES = 2000;
+    private static final int BATCHED_LINES = 20000;
+    private static final int BATCH = 500;
+
+    private ScheduledExecutorService scheduler;
+    private DatabasePool pool;
+
+    // -------------------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+
+        assumeTrue("No test database, set -Dmrev.test.db.url", URL != null);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        pool = new DatabasePool("test", URL, System.getProperty("mrev.test.db.user", "root"), System.getProperty("mrev.test.db.pass", ""), 1, scheduler);
+
+        assumeTrue("Test database unavailable: " + URL, pool.open());
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+
+        if (pool == null) {
+            return;
+        }
+
+        try (DatabaseConnection conn = pool.borrow(); Statement statement = conn.getConnection().createStatement()) {
+            statement.executeUpdate("DROP TABLE IF EXISTS server_" + PORT);
+            statement.executeUpdate("DELETE FROM server_logs WHERE server_port = " + PORT);
+        } catch (SQLException ex) {
+            // Table of the other mode
+        }
+
+        try (DatabaseConnection conn = pool.borrow(); Statement statement = conn.getConnection().createStatement()) {
+            statement.executeUpdate("DELETE FROM server_log_blocks WHERE server_port = " + PORT);
+        } catch (SQLException ex) {
+            // Table of the other mode
+        }
+
+        pool.close();
+        scheduler.shutdownNow();
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The batched writer shall write more rows per second than the former path.
+     */
+    @Test
+    public void testRowsPerSecond() throws SQLException {
+
+        final double legacy = legacyRowsPerSecond();
+        final double batched = batchedRowsPerSecond();
+
+        System.out.println(String.format("Former path: %.0f rows/s, batched writer (%d lines per batch): %.0f rows/s, %.1fx",
+                legacy, BATCH, batched, batched / legacy));
+
+        assertTrue(batched > legacy);
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * This method writes lines the former way: an INSERT, a SELECT of the retention bound and a
+     * DELETE per line, each statement prepared anew.
+     */
+    private double legacyRowsPerSecond() throws SQLException {
+
+        try (DatabaseConnection conn = pool.borrow()) {
+
+            try (Statement statement = conn.getConnection().createStatement()) {
+                statement.executeUpdate("DROP TABLE IF EXISTS server_" + PORT);
+                statement.executeUpdate("CREATE TABLE server_" + PORT + " (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, log_text TEXT)");
+            }
+
+            final long started = System.nanoTime();
+
+            for (int i = 0; i < LEGACY_LINES; i++) {
+
+                try (PreparedStatement ps1 = conn.getConnection().prepareStatement("INSERT INTO server_" + PORT + " (log_text) VALUES (?)");
+                        PreparedStatement ps2 = conn.getConnection().prepareStatement("SELECT id FROM server_" + PORT + " WHERE id = (SELECT MAX(id) - 100 FROM server_" + PORT + ")");
+                        PreparedStatement ps3 = conn.getConnection().prepareStatement("DELETE FROM server_" + PORT + " WHERE id < ?")) {
+
+                    ps1.setString(1, line(i));
+                    ps1.executeUpdate();
+
+                    try (ResultSet rs = ps2.executeQuery()) {
+
+                        if (rs.next() && rs.getInt("id") > 0) {
+                            ps3.setInt(1, rs.getInt("id"));
+                            ps3.executeUpdate();
+                        }
+                    }
+                }
+            }
+
+            return LEGACY_LINES * 1e9 / (System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * This method writes lines by the log writer, in batches as shipped by the log shipper.
+     */
+    private double batchedRowsPerSecond() throws SQLException {
+
+        final DatabaseLogWriter writer = new DatabaseLogWriter();
+
+        try (DatabaseConnection conn = pool.borrow()) {
+
+            writer.createTable(conn);
+
+            final long offset = writer.getNextSequence(conn, PORT);
+            final long timestamp = System.currentTimeMillis();
+            final List<Gameserver_Spool.Line> lines = new ArrayList<>(BATCH);
+
+            final long started = System.nanoTime();
+
+            for (int i = 0; i < BATCHED_LINES; i += BATCH) {
+
+                lines.clear();
+
+                for (int j = i; j < i + BATCH; j++) {
+                    lines.add(new Gameserver_Spool.Line(j, timestamp, line(j)));
+                }
+
+                assertEquals(DatabaseLogWriter.Result.WRITTEN, writer.writeLines(conn, PORT, offset, lines));
+            }
+
+            return BATCHED_LINES * 1e9 / (System.nanoTime() - started);
+        }
+    }
+
+    private static String line(int i) {
+        return "[12:00:00] [Server thread/INFO]: Player" + (i % 50) + " issued server command: /home " + i;
+    }
+}
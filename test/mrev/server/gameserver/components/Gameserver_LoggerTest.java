@@ -0,0 +1,142 @@
+package mrev.server.gameserver.components;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Gameserver_LoggerTest class tests the throughput of the blocking reader of a gameserver
+ * outputstream, by a fake gameserver process flooding it's stdout as fast as it can. Each
+ * line shall reach the spool and the line listener, in order. The spool is written to
+ * servers/server_65002 of the working directory, deleted afterwards.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 21:32:47
+ * @version 0.0.1
+ */
+public class Gameserver_LoggerTest {
+
+    // -------------------------------------------------------------------------
+
+    private static final int PORT = 65002;
+    private static final int LINES = 100000;
+    private static final long TIMEOUT = 60 * 1000;// 60 Seconds
+
+    private final File directory = new File("servers/server_" + PORT);
+
+    // -------------------------------------------------------------------------
+
+    @Before
+    public void setUp() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        Gameserver_Logger.setLineListener(null);
+        Gameserver_Spool.close(PORT);
+
+        FileUtils.deleteDirectory(directory);
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * Every line of a flooding process is spooled and passed to the line listener in order,
+     * far beyond the 100 lines per second of the polling reader.
+     */
+    @Test
+    public void testStdoutFlood() throws IOException, InterruptedException {
+
+        final AtomicLong received = new AtomicLong(0);
+        final AtomicLong out_of_order = new AtomicLong(0);
+
+        Gameserver_Logger.setLineListener(new Gameserver_Logger.LineListener() {
+
+            @Override
+            public void line(int port, long sequence, String line) {
+
+                if (sequence != received.getAndIncrement() || !line.equals(Flood.line(sequence))) {
+                    out_of_order.incrementAndGet();
+                }
+            }
+        });
+
+        final Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), Flood.class.getName(), String.valueOf(LINES)).start();
+
+        final Gameserver_IoStream stream = new Gameserver_IoStream(process);
+        final Gameserver_Logger logger = new Gameserver_Logger();
+
+        final long started = System.nanoTime();
+
+        logger.openSpool(PORT);
+        logger.startOutStreamReader(PORT, stream);
+        logger.flush(stream, TIMEOUT);
+
+        final long elapsed = Math.max(1, (System.nanoTime() - started) / 1000000);
+
+        assertEquals(0, process.waitFor());
+        assertEquals("Lines received", LINES, received.get());
+        assertEquals("Lines out of order", 0, out_of_order.get());
+
+        final Gameserver_Spool spool = Gameserver_Spool.open(PORT);
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+
+        assertEquals(LINES, spool.getPending());
+
+        while (spool.read(lines, 4096) > 0) {
+
+            for (Gameserver_Spool.Line line : lines) {
+                assertEquals(Flood.line(line.getSequence()), line.getText());
+            }
+
+            lines.clear();
+        }
+
+        System.out.println("Read " + LINES + " lines in " + elapsed + " ms (" + (LINES * 1000L / elapsed) + " lines/s)");
+
+        assertTrue("Slower than 1000 lines/s", LINES * 1000L / elapsed > 1000);
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The Flood class is the fake gameserver process, printing the given number of lines
+     * to stdout as fast as it can.
+     */
+    public static final class Flood {
+
+        /**
+         * This method returns the line printed by the given sequence number.
+         * @param sequence The sequence number.
+         * @return String The line.
+         */
+        static String line(long sequence) {
+            return "[12:00:00] [Server thread/INFO]: Flood line " + sequence;
+        }
+
+        public static void main(String[] args) {
+
+            final int count = Integer.parseInt(args[0]);
+            final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false);
+
+            for (int i = 0; i < count; i++) {
+                out.println(line(i));
+            }
+
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package mrev.server.gameserver.components;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The Gameserver_SpoolTest class tests the spool, the per-server buffer between the reader
+ * of a gameserver and the log shipper which replaced the temporary log and it's ring buffer.
+ * The segments are made small, thus the spool is trimmed within a few hundred kilobytes.
+ * The spool is written to servers/server_65001 of the working directory, deleted afterwards.
+ *
+ * @author Richard Dahlgren
+ * @since 2026-okt-17, 21:18:05
+ * @version 0.0.1
+ */
+public class Gameserver_SpoolTest {
+
+    // -------------------------------------------------------------------------
+
+    private static final int PORT = 65001;
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int MAX_BYTES = 4 * SEGMENT_SIZE;
+
+    static {// Read once the spool is loaded, each test class is run by it's own JVM
+        System.setProperty("mrev.spool.segmentSize", String.valueOf(SEGMENT_SIZE));
+        System.setProperty("mrev.spool.maxBytes", String.valueOf(MAX_BYTES));
+    }
+
+    private final File directory = new File("servers/server_" + PORT);
+
+    private Gameserver_Spool spool;
+
+    // -------------------------------------------------------------------------
+
+    @Before
+    public void setUp() throws IOException {
+
+        FileUtils.deleteDirectory(directory);
+
+        spool = Gameserver_Spool.open(PORT, true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+
+        spool.detach();
+
+        assertTrue("Spool still written", Gameserver_Spool.close(PORT));
+
+        FileUtils.deleteDirectory(directory);
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The lines are read in batches in the order they were appended, without gaps.
+     */
+    @Test
+    public void testReadInSequenceOrder() throws IOException {
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, spool.append("line " + i));
+        }
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+        int read;
+
+        while ((read = spool.read(lines, 128)) > 0) {
+            assertTrue(read <= 128);
+        }
+
+        assertEquals(1000, lines.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, lines.get(i).getSequence());
+            assertEquals("line " + i, lines.get(i).getText());
+        }
+    }
+
+    /**
+     * Equal lines are kept apart by their sequence numbers, none of them is lost.
+     */
+    @Test
+    public void testDuplicateLinesKept() throws IOException {
+
+        for (int i = 0; i < 50; i++) {
+            spool.append("Can't keep up! Did the system time change, or is the server overloaded?");
+        }
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+
+        assertEquals(50, spool.read(lines, 100));
+        assertEquals(49, lines.get(49).getSequence());
+    }
+
+    /**
+     * The lines read but not committed are read again after a rewind.
+     */
+    @Test
+    public void testRewindReadsUncommittedLines() throws IOException {
+
+        for (int i = 0; i < 10; i++) {
+            spool.append("line " + i);
+        }
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+
+        assertEquals(5, spool.read(lines, 5));
+        spool.commit();
+
+        lines.clear();
+        assertEquals(5, spool.read(lines, 5));
+        assertEquals(5, spool.getPending());
+
+        spool.rewind();
+
+        lines.clear();
+        assertEquals(5, spool.read(lines, 10));
+        assertEquals(5, lines.get(0).getSequence());
+    }
+
+    /**
+     * The lines not yet shipped and the offset survive the spool being opened again, the
+     * appender continues the last segment.
+     */
+    @Test
+    public void testReopenKeepsUnshippedLines() throws IOException {
+
+        for (int i = 0; i < 10; i++) {
+            spool.append("line " + i);
+        }
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+
+        spool.read(lines, 4);
+        spool.commit();
+        spool.setOffset(1000);
+        spool.detach();
+
+        assertTrue(Gameserver_Spool.close(PORT));
+
+        spool = Gameserver_Spool.open(PORT);
+
+        assertTrue(spool.isPending());
+        assertEquals(6, spool.getPending());
+        assertEquals(1000, spool.getOffset());
+
+        assertTrue(spool == Gameserver_Spool.open(PORT, true));
+        assertEquals(10, spool.append("line 10"));
+        assertEquals(1, new File(directory, Gameserver_Spool.DIRECTORY).list(new SegmentFilter()).length);
+
+        lines.clear();
+        spool.read(lines, 100);
+
+        assertEquals(7, lines.size());
+        assertEquals(4, lines.get(0).getSequence());
+        assertEquals("line 10", lines.get(6).getText());
+    }
+
+    /**
+     * A full spool deletes it's oldest segments, counting the lines not yet shipped, and the
+     * next read continues after them.
+     */
+    @Test
+    public void testFullSpoolCountsDroppedLines() throws IOException {
+
+        final long dropped = Gameserver_Spool.getDropped();
+        final StringBuilder line = new StringBuilder();
+
+        while (line.length() < 1000) {
+            line.append("x");
+        }
+
+        for (int i = 0; i < 2000; i++) {// About 2 MB, 8 times the maximum size
+            spool.append(line.toString());
+        }
+
+        final long lost = Gameserver_Spool.getDropped() - dropped;
+
+        assertTrue("No lines dropped", lost > 0);
+        assertEquals(2000 - lost, spool.getPending());
+        assertTrue(new File(directory, Gameserver_Spool.DIRECTORY).list(new SegmentFilter()).length <= MAX_BYTES / SEGMENT_SIZE);
+
+        final List<Gameserver_Spool.Line> lines = new ArrayList<>();
+
+        spool.read(lines, 1);
+        assertEquals(lost, lines.get(0).getSequence());
+    }
+
+    /**
+     * An attached spool is neither released nor attached twice.
+     */
+    @Test
+    public void testAttachedSpoolKept() throws IOException {
+
+        Gameserver_Spool.release(spool);
+
+        assertTrue(spool == Gameserver_Spool.open(PORT));
+        assertFalse(Gameserver_Spool.close(PORT));
+
+        try {
+            Gameserver_Spool.open(PORT, true);
+            fail("Attached twice");
+        } catch (IOException ex) {
+            // Still written
+        }
+    }
+
+    /**
+     * A fresh spool has no offset determined yet.
+     */
+    @Test
+    public void testOffsetUndetermined() {
+        assertEquals(-1, spool.getOffset());
+        assertFalse(spool.isPending());
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * The SegmentFilter class accepts the segment files of a spool.
+     */
+    private static final class SegmentFilter implements FilenameFilter {
+
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(".seg");
+        }
+    }
+}